@@ -58,15 +58,19 @@ public class Area {
     private String name;
 
     @ElementCollection
+    @Cache(usage=READ_WRITE)
     private Set<String> editors = new HashSet<String>();
 
     @ElementCollection
+    @Cache(usage=READ_WRITE)
     private Set<String> admins = new HashSet<String>();
 
     @ElementCollection
+    @Cache(usage=READ_WRITE)
     private Set<String> editorLDAPGroups = new HashSet<String>();
 
     @ElementCollection
+    @Cache(usage=READ_WRITE)
     private Set<String> adminLDAPGroups = new HashSet<String>();
 
     @OneToOne(fetch=FetchType.LAZY)
@@ -0,0 +1,335 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.sonymobile.backlogtool.permission.PermissionCache;
+
+/**
+ * Deletes areas in the background. The backlog items of the area are deleted
+ * with bulk statements, children before their parents, in batches of
+ * {@link #BATCH_SIZE} items that are committed one at a time. The area itself
+ * and its attributes are deleted last. The progress of a deletion can be read
+ * with {@link #getStatus(String)}.
+ * <p>
+ * While an area is being deleted, {@link #isDeleting(String)} is true and the
+ * permission checks don't allow any edits in it. The clients of the area are
+ * told that it is removed when the deletion starts and again when it is done.
+ */
+@Component
+public class AreaDeleter {
+
+    /** Max number of items deleted in one transaction. */
+    static final int BATCH_SIZE = 1000;
+
+    /** How long the status of a finished deletion is kept, in milliseconds. */
+    private static final long STATUS_TIME_TO_LIVE = 10 * 60 * 1000;
+
+    /** Items in the order they are deleted, and the query selecting them (as i) in an area. */
+    private static final String[][] ITEM_QUERIES = {
+        {"Task", "from Task i where i.story.area.name = :area"},
+        {"Story", "from Story i where i.area.name = :area"},
+        {"Epic", "from Epic i where i.area.name = :area"},
+        {"Theme", "from Theme i where i.area.name = :area"},
+    };
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "area-deleter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    @Autowired
+    SessionFactory sessionFactory;
+
+    @Autowired
+    PermissionCache permissionCache;
+
+    /** Maps an area name to the status of its latest deletion. */
+    private final Map<String, Status> statuses = new ConcurrentHashMap<String, Status>();
+
+    /**
+     * Starts deleting an area, unless it's already being deleted.
+     * @param areaName the area to delete
+     * @return the status of the deletion, or null if the area doesn't exist
+     */
+    public synchronized Status start(final String areaName) {
+        removeFinished();
+        Status status = statuses.get(areaName);
+        if (status != null && status.getState().equals(Status.RUNNING)) {
+            return status;
+        }
+        int total = countItems(areaName);
+        if (total < 0) {
+            return null;
+        }
+        final Status newStatus = new Status(total);
+        statuses.put(areaName, newStatus);
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                delete(areaName, newStatus);
+            }
+        });
+        return newStatus;
+    }
+
+    /**
+     * @param areaName the area
+     * @return the status of the latest deletion of the area, or null if it
+     * hasn't been deleted recently
+     */
+    public Status getStatus(String areaName) {
+        return statuses.get(areaName);
+    }
+
+    /**
+     * @param areaName the area
+     * @return true if the area is being deleted, and must not be changed
+     */
+    public boolean isDeleting(String areaName) {
+        Status status = statuses.get(areaName);
+        return status != null && status.getState().equals(Status.RUNNING);
+    }
+
+    /**
+     * Forgets the statuses of deletions that finished a while ago.
+     */
+    private void removeFinished() {
+        long oldest = System.currentTimeMillis() - STATUS_TIME_TO_LIVE;
+        Iterator<Status> it = statuses.values().iterator();
+        while (it.hasNext()) {
+            Status status = it.next();
+            if (!status.getState().equals(Status.RUNNING) && status.getFinished() < oldest) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the number of items in the area, or -1 if the area doesn't exist
+     */
+    private int countItems(String areaName) {
+        int total = -1;
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            if (session.get(Area.class, areaName) != null) {
+                total = 0;
+                for (String[] itemQuery : ITEM_QUERIES) {
+                    Query query = session.createQuery("select count(i) " + itemQuery[1]);
+                    query.setString("area", areaName);
+                    total += ((Number) query.uniqueResult()).intValue();
+                }
+            }
+            tx.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+        } finally {
+            session.close();
+        }
+        return total;
+    }
+
+    private void delete(String areaName, Status status) {
+        try {
+            //Tell the clients before the items start to disappear
+            AtmosphereHandler.push(areaName, JSONController.getJsonStringInclChildren("AreaDelete", "{}",
+                    JSONController.ALL_VIEWS));
+            for (String[] itemQuery : ITEM_QUERIES) {
+                int deleted;
+                do {
+                    deleted = deleteBatch(itemQuery[0], itemQuery[1], areaName);
+                    status.addDeleted(deleted);
+                } while (deleted > 0);
+            }
+            deleteArea(areaName);
+            sessionFactory.getCache().evictEntityRegion(Task.class);
+            sessionFactory.getCache().evictEntityRegion(Story.class);
+            sessionFactory.getCache().evictEntityRegion(Epic.class);
+            sessionFactory.getCache().evictEntityRegion(Theme.class);
+            sessionFactory.getCache().evictCollectionRegions();
+            permissionCache.invalidateArea(areaName);
+            AreaMetadataCache.invalidate(areaName);
+            AutocompleteIndex.invalidate(areaName);
+            status.setState(Status.DONE);
+            AtmosphereHandler.push(areaName, JSONController.getJsonStringInclChildren("AreaDelete", "{}",
+                    JSONController.ALL_VIEWS));
+            //After the push, which is added to the log of the area
+            ChangeLog.remove(areaName);
+        } catch (Exception e) {
+            e.printStackTrace();
+            status.setState(Status.FAILED);
+            permissionCache.invalidateArea(areaName);
+        }
+    }
+
+    /**
+     * Deletes one batch of items of a type.
+     * @return the number of deleted items
+     */
+    private int deleteBatch(String entityName, String idQuery, String areaName) {
+        int deleted = 0;
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            Query query = session.createQuery("select i.id " + idQuery);
+            query.setString("area", areaName);
+            query.setMaxResults(BATCH_SIZE);
+            List<?> ids = query.list();
+            if (!ids.isEmpty()) {
+                Query deleteQuery = session.createQuery("delete from " + entityName + " where id in (:ids)");
+                deleteQuery.setParameterList("ids", ids);
+                deleted = deleteQuery.executeUpdate();
+            }
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the area and its attributes. Items that were added to the area
+     * while it was deleted are deleted in the same transaction.
+     */
+    private void deleteArea(String areaName) {
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            for (String[] itemQuery : ITEM_QUERIES) {
+                Query deleteQuery = session.createQuery("delete from " + itemQuery[0]
+                        + " where id in (select i.id " + itemQuery[1] + ")");
+                deleteQuery.setString("area", areaName);
+                deleteQuery.executeUpdate();
+            }
+
+            Area area = (Area) session.get(Area.class, areaName);
+            if (area != null) {
+                Attribute[] attributes = {area.getStoryAttr1(), area.getStoryAttr2(),
+                        area.getStoryAttr3(), area.getTaskAttr1()};
+                for (Attribute attribute : attributes) {
+                    for (AttributeOption option : attribute.getOptions()) {
+                        session.delete(option);
+                    }
+                    session.delete(attribute);
+                }
+                session.delete(area);
+            }
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Progress of the deletion of an area.
+     */
+    public static class Status {
+
+        public static final String RUNNING = "running";
+        public static final String DONE = "done";
+        public static final String FAILED = "failed";
+
+        private volatile String state = RUNNING;
+        private final int total;
+        private volatile int deleted = 0;
+        private volatile long finished = 0;
+
+        Status(int total) {
+            this.total = total;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        void setState(String state) {
+            if (!state.equals(RUNNING)) {
+                finished = System.currentTimeMillis();
+            }
+            this.state = state;
+        }
+
+        /**
+         * @return when the deletion finished, or 0 if it is running
+         */
+        long getFinished() {
+            return finished;
+        }
+
+        /**
+         * @return number of backlog items in the area when the deletion started
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return number of backlog items deleted so far
+         */
+        public int getDeleted() {
+            return deleted;
+        }
+
+        synchronized void addDeleted(int count) {
+            deleted += count;
+        }
+    }
+
+}
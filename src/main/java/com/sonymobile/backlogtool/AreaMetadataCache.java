@@ -0,0 +1,193 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Cache of the metadata of each area, i.e. the area with its attributes,
+ * their options and the admins and editors. The cached areas are shared by
+ * all requests and must not be changed; their sets can't be modified.
+ * <p>
+ * The metadata is read with a few small queries instead of one query that
+ * joins everything, which would return one row per combination of admin and
+ * editor. Code that changes the attributes or the admins and editors of an
+ * area must call {@link #invalidate(String)} after the change is committed.
+ */
+public final class AreaMetadataCache {
+
+    /** Max number of areas kept. */
+    private static final int MAX_AREAS = 500;
+
+    /** Cached areas in access order, the least recently used first. */
+    private static final LinkedHashMap<String, Area> areas =
+            new LinkedHashMap<String, Area>(16, 0.75f, true);
+
+    /** Maps an area name to the number of times its metadata has been invalidated. */
+    private static final Map<String, Long> generations = new HashMap<String, Long>();
+
+    private AreaMetadataCache() {
+    }
+
+    /**
+     * Returns the cached metadata of an area, and reads it if it isn't cached.
+     * @param areaName the area
+     * @param sessionFactory hibernate session factory
+     * @return the area, which must not be changed, or null if it doesn't exist
+     */
+    public static Area get(String areaName, SessionFactory sessionFactory) {
+        long generation;
+        synchronized (AreaMetadataCache.class) {
+            Area area = areas.get(areaName);
+            if (area != null) {
+                return area;
+            }
+            generation = getGeneration(areaName);
+        }
+
+        Area area = load(areaName, sessionFactory);
+        if (area == null) {
+            return null;
+        }
+        freeze(area);
+
+        synchronized (AreaMetadataCache.class) {
+            if (generation == getGeneration(areaName)) {
+                areas.put(areaName, area);
+                Iterator<String> lruOrder = areas.keySet().iterator();
+                while (areas.size() > MAX_AREAS) {
+                    lruOrder.next();
+                    lruOrder.remove();
+                }
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Reads the metadata of an area without caching it. The returned area is
+     * detached and may be changed by the caller.
+     * @param areaName the area
+     * @param sessionFactory hibernate session factory
+     * @return the area, or null if it doesn't exist
+     */
+    public static Area load(String areaName, SessionFactory sessionFactory) {
+        Area area = null;
+
+        Session session = UnitOfWork.openSession(sessionFactory);
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+
+            Object[] attributeIds = (Object[]) session.createQuery("select a1.id, a2.id, a3.id, a4.id "
+                    + "from Area ar "
+                    + "left join ar.storyAttr1 a1 left join ar.storyAttr2 a2 "
+                    + "left join ar.storyAttr3 a3 left join ar.taskAttr1 a4 "
+                    + "where ar.name = ?")
+                    .setParameter(0, areaName)
+                    .setCacheable(true)
+                    .uniqueResult();
+            if (attributeIds != null) {
+                List<Integer> ids = new ArrayList<Integer>();
+                for (Object id : attributeIds) {
+                    if (id != null) {
+                        ids.add((Integer) id);
+                    }
+                }
+                //Read the attributes with their options first, so that
+                //they are already in the session when the area is read
+                if (!ids.isEmpty()) {
+                    session.createQuery("from Attribute a left join fetch a.options o "
+                            + "where a.id in (:ids) order by o.compareValue")
+                            .setParameterList("ids", ids)
+                            .list();
+                }
+
+                area = (Area) session.createQuery("from Area ar "
+                        + "left join fetch ar.storyAttr1 left join fetch ar.storyAttr2 "
+                        + "left join fetch ar.storyAttr3 left join fetch ar.taskAttr1 "
+                        + "where ar.name = ?")
+                        .setParameter(0, areaName)
+                        .uniqueResult();
+                Hibernate.initialize(area.getEditors());
+                Hibernate.initialize(area.getAdmins());
+            }
+            tx.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            area = null;
+        } finally {
+            session.close();
+        }
+        return area;
+    }
+
+    /**
+     * Removes the cached metadata of an area.
+     * @param areaName the area that was changed
+     */
+    public static synchronized void invalidate(String areaName) {
+        generations.put(areaName, getGeneration(areaName) + 1);
+        areas.remove(areaName);
+    }
+
+    private static long getGeneration(String areaName) {
+        Long generation = generations.get(areaName);
+        return generation != null ? generation : 0;
+    }
+
+    /**
+     * Replaces the sets of a detached area and its attributes with sets
+     * that can't be modified.
+     */
+    private static void freeze(Area area) {
+        area.setEditors(Collections.unmodifiableSet(new HashSet<String>(area.getEditors())));
+        area.setAdmins(Collections.unmodifiableSet(new HashSet<String>(area.getAdmins())));
+        Attribute[] attributes = {area.getStoryAttr1(), area.getStoryAttr2(),
+                area.getStoryAttr3(), area.getTaskAttr1()};
+        for (Attribute attribute : attributes) {
+            if (attribute != null) {
+                attribute.setOptions(Collections.unmodifiableSet(
+                        new LinkedHashSet<AttributeOption>(attribute.getOptions())));
+            }
+        }
+    }
+
+}
@@ -23,6 +23,7 @@
  */
 package com.sonymobile.backlogtool;
 
+import java.util.Collections;
 import java.util.List;
 import javax.servlet.http.HttpServletRequest;
 import org.atmosphere.cpr.AtmosphereResource;
@@ -101,18 +102,18 @@ public final class AtmosphereHandler implements HandlerMethodArgumentResolver {
      * @param messages A List of text-messages
      */
     public static void pushJsonMessages(String area, List<String> messages) {
-        StringBuilder sb = new StringBuilder();
-        if (messages != null) {
-            for (String s : messages) {
-                sb.append(s).append(',');
-            }
+        if (messages == null || messages.isEmpty()) {
+            return;
         }
-        sb.deleteCharAt(sb.length() - 1);
-        push(area, sb.toString());
+        SnapshotCache.invalidate(area);
+        PushCoalescer.add(area, messages);
     }
 
     /**
-     * Push a notification to all clients registered on the specified area
+     * Push a notification to all clients registered on the specified area.
+     * Since the area has changed, its cached snapshots are invalidated.
+     * Messages sent close after each other are broadcasted together, see
+     * {@link PushCoalescer}.
      * 
      * @param areaName
      *            The name of the area
@@ -122,8 +123,8 @@ public final class AtmosphereHandler implements HandlerMethodArgumentResolver {
     public static void push(String areaName, String data) {
 //        System.out.println("=== INFO === Pushing data:\n \t " + data
 //                + "\n to area " + areaName);
-        Broadcaster bc = getBroadcasterForArea(areaName);
-        bc.broadcast(data);
+        SnapshotCache.invalidate(areaName);
+        PushCoalescer.add(areaName, Collections.singletonList(data));
     }
 
     @Override
@@ -31,7 +31,6 @@ import java.util.Set;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
@@ -54,13 +53,14 @@ import org.hibernate.annotations.Cache;
 public class Attribute {
 
     @Id
-    @GeneratedValue(strategy=GenerationType.SEQUENCE)
+    @GeneratedValue(generator="pooledSequence")
     int id;
 
     String name;
 
     @OrderBy(value="compareValue")
     @OneToMany(fetch=FetchType.EAGER)
+    @Cache(usage=READ_WRITE)
     Set<AttributeOption> options = new HashSet<AttributeOption>();
 
     public Attribute() {}
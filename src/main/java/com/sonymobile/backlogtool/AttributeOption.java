@@ -27,7 +27,6 @@ import static org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
@@ -48,7 +47,7 @@ import org.hibernate.annotations.Cache;
 public class AttributeOption {
 
     @Id
-    @GeneratedValue(strategy=GenerationType.SEQUENCE)
+    @GeneratedValue(generator="pooledSequence")
     private int id;
 
     private String name;
@@ -0,0 +1,434 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * In-memory index of the theme and epic titles of each area, used to suggest
+ * titles while the user is typing. The titles of an area are read from the DB
+ * the first time they are searched and are then kept up to date by the code
+ * that creates, changes and deletes themes and epics. Bulk changes that
+ * can't tell which items were changed must call {@link #invalidate(String)}.
+ * <p>
+ * Each title is split into trigrams, so that a search only has to look at
+ * the titles that contain all trigrams of the search term. Indexes are only
+ * kept for areas that exist, and for at most {@link #MAX_AREAS} areas.
+ */
+public final class AutocompleteIndex {
+
+    /** Max number of titles returned by a search. */
+    public static final int MAX_RESULTS = 20;
+
+    /** Max number of areas kept. */
+    private static final int MAX_AREAS = 500;
+
+    private static final int GRAM_LENGTH = 3;
+
+    private static final int EXACT_MATCH = 0;
+    private static final int PREFIX_MATCH = 1;
+    private static final int WORD_MATCH = 2;
+    private static final int CONTAINS_MATCH = 3;
+
+    /** Indexes in access order, the least recently used first. */
+    private static final LinkedHashMap<String, AreaIndex> indexes =
+            new LinkedHashMap<String, AreaIndex>(16, 0.75f, true);
+
+    /**
+     * Maps an area name to a token for the index that is being read from the
+     * DB. The token is removed when the area is changed during the read, and
+     * the index is then not kept.
+     */
+    private static final Map<String, Object> loads = new HashMap<String, Object>();
+
+    private AutocompleteIndex() {
+    }
+
+    /**
+     * @param areaName the area to search in
+     * @param term what the user has typed
+     * @param sessionFactory used to read the titles if they aren't indexed yet
+     * @return the titles of the themes that contain term, best matches first
+     */
+    public static List<String> findThemes(String areaName, String term, SessionFactory sessionFactory) {
+        AreaIndex index = getIndex(areaName, sessionFactory);
+        if (index == null) {
+            return new ArrayList<String>();
+        }
+        synchronized (AutocompleteIndex.class) {
+            return index.themes.find(term, null);
+        }
+    }
+
+    /**
+     * @param areaName the area to search in
+     * @param term what the user has typed
+     * @param themeTitle title of the theme the epics belong to, or an empty
+     * string for epics without a theme
+     * @param sessionFactory used to read the titles if they aren't indexed yet
+     * @return the titles of the epics that contain term, best matches first
+     */
+    public static List<String> findEpics(String areaName, String term, String themeTitle,
+            SessionFactory sessionFactory) {
+        AreaIndex index = getIndex(areaName, sessionFactory);
+        if (index == null) {
+            return new ArrayList<String>();
+        }
+        synchronized (AutocompleteIndex.class) {
+            Set<Integer> epicIds = new HashSet<Integer>();
+            if (themeTitle.isEmpty()) {
+                for (Map.Entry<Integer, Integer> entry : index.themeOfEpic.entrySet()) {
+                    if (entry.getValue() == null) {
+                        epicIds.add(entry.getKey());
+                    }
+                }
+            } else {
+                Set<Integer> themeIds = index.themes.getIds(themeTitle);
+                for (Map.Entry<Integer, Integer> entry : index.themeOfEpic.entrySet()) {
+                    if (themeIds.contains(entry.getValue())) {
+                        epicIds.add(entry.getKey());
+                    }
+                }
+            }
+            return index.epics.find(term, epicIds);
+        }
+    }
+
+    /**
+     * Adds a theme that was created or updates the title of a theme.
+     * Call it after the change has been committed.
+     * @param areaName the area of the theme
+     * @param theme the theme
+     */
+    public static synchronized void putTheme(String areaName, Theme theme) {
+        changed(areaName);
+        AreaIndex index = indexes.get(areaName);
+        if (index != null) {
+            index.themes.put(theme.getId(), StringEscapeUtils.unescapeHtml(theme.getTitle()));
+        }
+    }
+
+    /**
+     * Adds an epic that was created or updates the title and theme of an
+     * epic. Call it after the change has been committed.
+     * @param areaName the area of the epic
+     * @param epic the epic
+     */
+    public static synchronized void putEpic(String areaName, Epic epic) {
+        changed(areaName);
+        AreaIndex index = indexes.get(areaName);
+        if (index != null) {
+            index.epics.put(epic.getId(), StringEscapeUtils.unescapeHtml(epic.getTitle()));
+            index.themeOfEpic.put(epic.getId(), epic.getTheme() != null ? epic.getTheme().getId() : null);
+        }
+    }
+
+    /**
+     * Removes a deleted theme. Its epics are left without a theme.
+     * @param areaName the area of the theme
+     * @param themeId id of the theme
+     */
+    public static synchronized void removeTheme(String areaName, int themeId) {
+        changed(areaName);
+        AreaIndex index = indexes.get(areaName);
+        if (index != null) {
+            index.themes.remove(themeId);
+            for (Map.Entry<Integer, Integer> entry : index.themeOfEpic.entrySet()) {
+                if (entry.getValue() != null && entry.getValue() == themeId) {
+                    entry.setValue(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a deleted epic.
+     * @param areaName the area of the epic
+     * @param epicId id of the epic
+     */
+    public static synchronized void removeEpic(String areaName, int epicId) {
+        changed(areaName);
+        AreaIndex index = indexes.get(areaName);
+        if (index != null) {
+            index.epics.remove(epicId);
+            index.themeOfEpic.remove(epicId);
+        }
+    }
+
+    /**
+     * Removes the index of an area, so that it is read again from the DB
+     * the next time it is searched.
+     * @param areaName the area that was changed
+     */
+    public static synchronized void invalidate(String areaName) {
+        changed(areaName);
+        indexes.remove(areaName);
+    }
+
+    private static void changed(String areaName) {
+        loads.remove(areaName);
+    }
+
+    /**
+     * Returns the index of an area, and reads it from the DB if needed. An
+     * index that was read while the area was changed is used for this search
+     * but isn't kept.
+     * @return the index, or null if it couldn't be read or the area doesn't exist
+     */
+    private static AreaIndex getIndex(String areaName, SessionFactory sessionFactory) {
+        Object token = new Object();
+        synchronized (AutocompleteIndex.class) {
+            AreaIndex index = indexes.get(areaName);
+            if (index != null) {
+                return index;
+            }
+            loads.put(areaName, token);
+        }
+
+        AreaIndex index = readIndex(areaName, sessionFactory);
+
+        synchronized (AutocompleteIndex.class) {
+            if (loads.get(areaName) == token) {
+                loads.remove(areaName);
+                if (index != null) {
+                    indexes.put(areaName, index);
+                    Iterator<String> lruOrder = indexes.keySet().iterator();
+                    while (indexes.size() > MAX_AREAS) {
+                        lruOrder.next();
+                        lruOrder.remove();
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private static AreaIndex readIndex(String areaName, SessionFactory sessionFactory) {
+        AreaIndex index = null;
+        Session session = UnitOfWork.openSession(sessionFactory);
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+
+            //Nothing is kept for area names that don't exist
+            if (session.get(Area.class, areaName) != null) {
+                AreaIndex newIndex = new AreaIndex();
+                Query themeQuery = session.createQuery("select id, title from Theme where area.name = ?");
+                themeQuery.setParameter(0, areaName);
+                for (Object row : themeQuery.list()) {
+                    Object[] values = (Object[]) row;
+                    newIndex.themes.put((Integer) values[0], (String) values[1]);
+                }
+
+                Query epicQuery = session.createQuery("select e.id, e.title, t.id from Epic e " +
+                        "left join e.theme t where e.area.name = ?");
+                epicQuery.setParameter(0, areaName);
+                for (Object row : epicQuery.list()) {
+                    Object[] values = (Object[]) row;
+                    newIndex.epics.put((Integer) values[0], (String) values[1]);
+                    newIndex.themeOfEpic.put((Integer) values[0], (Integer) values[2]);
+                }
+                index = newIndex;
+            }
+            tx.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+        } finally {
+            session.close();
+        }
+        return index;
+    }
+
+    private static class AreaIndex {
+        private final TitleIndex themes = new TitleIndex();
+        private final TitleIndex epics = new TitleIndex();
+
+        /** Maps epic id to the id of its theme, or null if it has none. */
+        private final Map<Integer, Integer> themeOfEpic = new HashMap<Integer, Integer>();
+    }
+
+    /**
+     * Titles of one type of items, with the ids of the titles that contain
+     * each trigram.
+     */
+    static class TitleIndex {
+        private final Map<Integer, String> titles = new HashMap<Integer, String>();
+        private final Map<Integer, String> lowerCaseTitles = new HashMap<Integer, String>();
+        private final Map<String, Set<Integer>> grams = new HashMap<String, Set<Integer>>();
+
+        void put(int id, String title) {
+            remove(id);
+            if (title == null) {
+                return;
+            }
+            String lowerCaseTitle = title.toLowerCase();
+            titles.put(id, title);
+            lowerCaseTitles.put(id, lowerCaseTitle);
+            for (String gram : getGrams(lowerCaseTitle)) {
+                Set<Integer> ids = grams.get(gram);
+                if (ids == null) {
+                    ids = new HashSet<Integer>();
+                    grams.put(gram, ids);
+                }
+                ids.add(id);
+            }
+        }
+
+        void remove(int id) {
+            titles.remove(id);
+            String lowerCaseTitle = lowerCaseTitles.remove(id);
+            if (lowerCaseTitle == null) {
+                return;
+            }
+            for (String gram : getGrams(lowerCaseTitle)) {
+                Set<Integer> ids = grams.get(gram);
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+
+        /**
+         * @return ids of the items with the title, ignoring case
+         */
+        Set<Integer> getIds(String title) {
+            Set<Integer> ids = new HashSet<Integer>();
+            String lowerCaseTitle = title.toLowerCase();
+            for (Integer id : getCandidates(lowerCaseTitle)) {
+                if (lowerCaseTitles.get(id).equals(lowerCaseTitle)) {
+                    ids.add(id);
+                }
+            }
+            return ids;
+        }
+
+        /**
+         * @param term what the user has typed
+         * @param allowedIds only these items are searched, or all if null
+         * @return the titles that contain term, best matches first
+         */
+        List<String> find(String term, Set<Integer> allowedIds) {
+            final String lowerCaseTerm = term.toLowerCase();
+            final Map<String, Integer> matches = new HashMap<String, Integer>();
+            for (Integer id : getCandidates(lowerCaseTerm)) {
+                if (allowedIds != null && !allowedIds.contains(id)) {
+                    continue;
+                }
+                String lowerCaseTitle = lowerCaseTitles.get(id);
+                int index = lowerCaseTitle.indexOf(lowerCaseTerm);
+                if (index != -1) {
+                    int match = getMatch(lowerCaseTitle, lowerCaseTerm, index);
+                    String title = titles.get(id);
+                    Integer oldMatch = matches.get(title);
+                    if (oldMatch == null || match < oldMatch) {
+                        matches.put(title, match);
+                    }
+                }
+            }
+
+            List<String> result = new ArrayList<String>(matches.keySet());
+            Collections.sort(result, new Comparator<String>() {
+                @Override
+                public int compare(String title1, String title2) {
+                    int diff = matches.get(title1) - matches.get(title2);
+                    if (diff == 0) {
+                        diff = title1.length() - title2.length();
+                    }
+                    if (diff == 0) {
+                        diff = title1.compareToIgnoreCase(title2);
+                    }
+                    return diff;
+                }
+            });
+            if (result.size() > MAX_RESULTS) {
+                result = new ArrayList<String>(result.subList(0, MAX_RESULTS));
+            }
+            return result;
+        }
+
+        /**
+         * @return ids of the titles that contain all trigrams of term. Terms
+         * shorter than a trigram give all ids.
+         */
+        private Collection<Integer> getCandidates(String lowerCaseTerm) {
+            if (lowerCaseTerm.length() < GRAM_LENGTH) {
+                return titles.keySet();
+            }
+            Set<Integer> smallest = null;
+            for (String gram : getGrams(lowerCaseTerm)) {
+                Set<Integer> ids = grams.get(gram);
+                if (ids == null) {
+                    return Collections.emptySet();
+                }
+                if (smallest == null || ids.size() < smallest.size()) {
+                    smallest = ids;
+                }
+            }
+            return smallest;
+        }
+
+        private static int getMatch(String lowerCaseTitle, String lowerCaseTerm, int index) {
+            if (index == 0) {
+                return lowerCaseTitle.length() == lowerCaseTerm.length() ? EXACT_MATCH : PREFIX_MATCH;
+            }
+            do {
+                if (!Character.isLetterOrDigit(lowerCaseTitle.charAt(index - 1))) {
+                    return WORD_MATCH;
+                }
+                index = lowerCaseTitle.indexOf(lowerCaseTerm, index + 1);
+            } while (index != -1);
+            return CONTAINS_MATCH;
+        }
+
+        private static Set<String> getGrams(String lowerCaseText) {
+            Set<String> textGrams = new LinkedHashSet<String>();
+            for (int i = 0; i + GRAM_LENGTH <= lowerCaseText.length(); i++) {
+                textGrams.add(lowerCaseText.substring(i, i + GRAM_LENGTH));
+            }
+            return textGrams;
+        }
+    }
+
+}
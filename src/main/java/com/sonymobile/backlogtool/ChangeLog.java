@@ -0,0 +1,251 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory log of the latest push messages of each area. Every message gets
+ * a revision that is higher than the revisions of all messages before it.
+ * Clients that have lost their push connection read the messages they have
+ * missed with {@link #getChangesSince(String, long)} instead of reloading the
+ * whole view.
+ * <p>
+ * The revisions are shared by all areas and start at the time the server was
+ * started, so revisions handed out before a restart are lower than the ones
+ * after it. A log is only created when a message is added to an area. The
+ * log of each area is bounded in number of messages and in size, and the
+ * logs together are bounded in number and in size; the logs that were least
+ * recently added to are dropped first. The last revision of each dropped log
+ * is remembered, so that only the clients of that area have to resync.
+ */
+public final class ChangeLog {
+
+    /** Max number of messages kept per area. */
+    private static final int MAX_CHANGES = 1000;
+
+    /** Max total length in characters of the messages kept per area. */
+    private static final long MAX_TOTAL_LENGTH = 4L * 1024 * 1024;
+
+    /** Max number of areas that logs are kept for. */
+    private static final int MAX_AREAS = 500;
+
+    /** Max total length in characters of the messages kept in all logs. */
+    private static final long MAX_TOTAL_LENGTH_ALL = 32L * 1024 * 1024;
+
+    /** Max number of areas whose dropped revision is remembered. */
+    private static final int MAX_DROPPED_AREAS = 10000;
+
+    /** Logs in access order, the least recently added to first. */
+    private static final LinkedHashMap<String, AreaLog> logs =
+            new LinkedHashMap<String, AreaLog>(16, 0.75f, true);
+
+    /** The revision of the last message added to any area. */
+    private static long revision = System.currentTimeMillis();
+
+    /**
+     * Maps an area name to the revision of the last message in its dropped
+     * log, the least recently dropped first.
+     */
+    private static final LinkedHashMap<String, Long> droppedRevisions = new LinkedHashMap<String, Long>();
+
+    /**
+     * Clients with a lower revision than this have to resync in all areas:
+     * revisions from before the server was started, and the ones of dropped
+     * logs that are no longer remembered per area.
+     */
+    private static long droppedRevisionFloor = revision;
+
+    /** Total length in characters of the messages kept in all logs. */
+    private static long totalLength = 0;
+
+    private ChangeLog() {
+    }
+
+    /**
+     * @param areaName the area
+     * @return the revision of the last message of the area, or the current
+     * revision if the area has no log
+     */
+    public static synchronized long getRevision(String areaName) {
+        AreaLog log = logs.get(areaName);
+        return log != null ? log.revision : revision;
+    }
+
+    /**
+     * Adds messages to the log of an area.
+     * @param areaName the area
+     * @param messages JSON messages, one object each
+     * @return the revision of the last added message
+     */
+    public static synchronized long append(String areaName, List<String> messages) {
+        AreaLog log = logs.get(areaName);
+        if (log == null) {
+            log = new AreaLog();
+            logs.put(areaName, log);
+        }
+        for (String message : messages) {
+            revision++;
+            log.revision = revision;
+            log.changes.addLast(new Change(revision, message));
+            log.totalLength += message.length();
+            totalLength += message.length();
+        }
+        while (log.changes.size() > MAX_CHANGES || log.totalLength > MAX_TOTAL_LENGTH) {
+            Change removed = log.changes.removeFirst();
+            log.totalLength -= removed.message.length();
+            log.removedRevision = removed.revision;
+            totalLength -= removed.message.length();
+        }
+        Iterator<Map.Entry<String, AreaLog>> lruOrder = logs.entrySet().iterator();
+        while (logs.size() > MAX_AREAS || totalLength > MAX_TOTAL_LENGTH_ALL) {
+            Map.Entry<String, AreaLog> dropped = lruOrder.next();
+            lruOrder.remove();
+            drop(dropped.getKey(), dropped.getValue());
+        }
+        return log.revision;
+    }
+
+    /**
+     * Returns the messages that were added after a revision.
+     * @param areaName the area
+     * @param since the last revision the client has got
+     * @return the messages in the order they were added, or null if some of
+     * them aren't kept anymore and the client has to read the whole view again
+     */
+    public static List<String> getChangesSince(String areaName, long since) {
+        return getChanges(areaName, since).getMessages();
+    }
+
+    /**
+     * Returns the messages that were added after a revision, together with
+     * the revision of the last of them, read at the same time.
+     * @param areaName the area
+     * @param since the last revision the client has got
+     * @return the changes
+     */
+    public static synchronized Changes getChanges(String areaName, long since) {
+        AreaLog log = logs.get(areaName);
+        long currentRevision = log != null ? log.revision : revision;
+        Long droppedRevision = droppedRevisions.get(areaName);
+        if (since > revision || since < droppedRevisionFloor
+                || (droppedRevision != null && since < droppedRevision)) {
+            //The revision is from before the server was restarted, or messages
+            //after it may have been in a log that has been dropped
+            return new Changes(currentRevision, null);
+        }
+        List<String> messages = new ArrayList<String>();
+        if (log != null) {
+            if (since < log.removedRevision) {
+                return new Changes(currentRevision, null);
+            }
+            for (Change change : log.changes) {
+                if (change.revision > since) {
+                    messages.add(change.message);
+                }
+            }
+        }
+        return new Changes(currentRevision, messages);
+    }
+
+    /**
+     * Drops the log of an area, e.g. when the area is deleted or renamed.
+     * Clients that have missed messages of the dropped log will have to read
+     * their view again.
+     * @param areaName the area
+     */
+    public static synchronized void remove(String areaName) {
+        AreaLog log = logs.remove(areaName);
+        if (log != null) {
+            drop(areaName, log);
+        }
+    }
+
+    private static void drop(String areaName, AreaLog log) {
+        totalLength -= log.totalLength;
+        //Put last, so that the area is the most recently dropped one
+        droppedRevisions.remove(areaName);
+        droppedRevisions.put(areaName, log.revision);
+        Iterator<Long> dropOrder = droppedRevisions.values().iterator();
+        while (droppedRevisions.size() > MAX_DROPPED_AREAS) {
+            droppedRevisionFloor = Math.max(droppedRevisionFloor, dropOrder.next());
+            dropOrder.remove();
+        }
+    }
+
+    /**
+     * The messages after a revision and the revision of the last of them.
+     */
+    public static class Changes {
+
+        private final long revision;
+        private final List<String> messages;
+
+        Changes(long revision, List<String> messages) {
+            this.revision = revision;
+            this.messages = messages;
+        }
+
+        /**
+         * @return the revision of the last message of the area
+         */
+        public long getRevision() {
+            return revision;
+        }
+
+        /**
+         * @return the messages in the order they were added, or null if the
+         * client has to read the whole view again
+         */
+        public List<String> getMessages() {
+            return messages;
+        }
+    }
+
+    private static class AreaLog {
+
+        private long revision;
+        private long totalLength = 0;
+        /** The revision of the last message removed to keep the log bounded. */
+        private long removedRevision = 0;
+        private final LinkedList<Change> changes = new LinkedList<Change>();
+    }
+
+    private static class Change {
+
+        private final long revision;
+        private final String message;
+
+        Change(long revision, String message) {
+            this.revision = revision;
+            this.message = message;
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * Builds push messages that only contain the changed properties of an item.
+ * The state of an item is recorded with {@link #snapshot(Class, Object)}
+ * before it is changed, and {@link #getDeltaMessage(Class, Object, String)}
+ * compares it to the state after the change. Both states are taken from the
+ * same JSON that a full push message would contain, so the property names
+ * are the ones the clients already know.
+ * <p>
+ * A delta message has the format
+ * {"type":"Delta","views":...,"data":{"type":"Story","id":1,"version":2,"changes":{...}}}.
+ * The version increases for every delta, so clients can ignore a delta that
+ * is older than one they have already applied.
+ */
+public class DeltaTracker {
+
+    public static final String PUSH_ACTION_DELTA = "Delta";
+
+    private static final AtomicLong VERSION = new AtomicLong();
+
+    private final Map<Object, ObjectNode> snapshots = new IdentityHashMap<Object, ObjectNode>();
+
+    /**
+     * Records the current state of an item.
+     * @param clazz the class of the item, e.g. Story.class
+     * @param item the item that is about to be changed
+     */
+    public <T> void snapshot(Class<T> clazz, T item) {
+        snapshots.put(item, toTree(clazz, item));
+    }
+
+    /**
+     * Creates a delta message for an item that was recorded with snapshot.
+     * @param clazz the class of the item, e.g. Story.class
+     * @param item the changed item
+     * @param viewParam the views that this message is intended for
+     * @return the message, or null if nothing was changed
+     * @throws IOException
+     * @throws IllegalStateException if no snapshot was taken of the item
+     */
+    public <T> String getDeltaMessage(Class<T> clazz, T item, String viewParam) throws IOException {
+        ObjectNode before = snapshots.get(item);
+        if (before == null) {
+            throw new IllegalStateException("No snapshot was taken of the item");
+        }
+        ObjectNode changes = toTree(clazz, item);
+        Iterator<Map.Entry<String, JsonNode>> fields = changes.getFields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().equals(before.get(field.getKey()))) {
+                fields.remove();
+            }
+        }
+        if (changes.size() == 0) {
+            return null;
+        }
+        HashMap<String, Object> delta = new HashMap<String, Object>();
+        delta.put("type", clazz.getSimpleName());
+        delta.put("id", changes.has("id") ? changes.get("id") : before.get("id"));
+        delta.put("version", VERSION.incrementAndGet());
+        delta.put("changes", changes);
+        return JSONController.getJsonStringInclChildren(PUSH_ACTION_DELTA, delta, viewParam);
+    }
+
+    private static <T> ObjectNode toTree(Class<T> clazz, T item) {
+        ObjectNode tree = JsonMappers.withoutChildren(clazz).valueToTree(item);
+        tree.remove("children");
+        return tree;
+    }
+
+}
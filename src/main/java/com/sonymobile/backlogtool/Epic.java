@@ -37,7 +37,6 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
@@ -60,12 +59,12 @@ import org.hibernate.annotations.Cache;
 @Cache(usage=READ_WRITE)
 @Entity
 @Table(name="Epics")
-public class Epic {
+public class Epic implements Ranked {
     
     public static final int DESCRIPTION_LENGTH = 100000;
 
     @Id
-    @GeneratedValue(strategy=GenerationType.SEQUENCE)
+    @GeneratedValue(generator="pooledSequence")
     private int id;
 
     @Column(length=100)
@@ -91,6 +90,7 @@ public class Epic {
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy="epic")
     @OrderBy("prioInEpic")
+    @Cache(usage=READ_WRITE)
     private Set<Story> children = new HashSet<Story>();
 
     public int getId() {
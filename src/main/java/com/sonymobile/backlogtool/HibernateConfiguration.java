@@ -77,12 +77,20 @@ public class HibernateConfiguration {
         
         props.put("hibernate.cache.region.factory_class", "net.sf.ehcache.hibernate.EhCacheRegionFactory");
         props.put("hibernate.cache.use_second_level_cache","true");
-        props.put("hibernate.cache.use_query_cache", "false");
+        props.put("hibernate.cache.use_query_cache", "true");
+        props.put("hibernate.generate_statistics", "true");
+
+        //Send inserts and updates in batches, grouped by table
+        props.put("hibernate.jdbc.batch_size", "50");
+        props.put("hibernate.order_inserts", "true");
+        props.put("hibernate.order_updates", "true");
         
         AnnotationSessionFactoryBean bean = new AnnotationSessionFactoryBean();
         bean.setAnnotatedClasses(new Class[]{Story.class, Task.class, User.class,
                 Area.class, Theme.class, Epic.class, Attribute.class,
                 AttributeOption.class, LoginTableCreator.class, SchemaVersion.class});
+        //The id generator is declared in package-info.java
+        bean.setAnnotatedPackages(new String[]{"com.sonymobile.backlogtool"});
         bean.setHibernateProperties(props);
         bean.setDataSource(this.dataSource);
         bean.setSchemaUpdate(true);
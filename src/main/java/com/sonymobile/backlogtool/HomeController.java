@@ -23,17 +23,23 @@
  */
 package com.sonymobile.backlogtool;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletResponse;
@@ -43,6 +49,8 @@ import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.hibernate.Hibernate;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -56,6 +64,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.CookieValue;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -74,6 +83,14 @@ import com.sonymobile.backlogtool.permission.User;
 @Controller
 public class HomeController {
 
+    /** Number of stories written between each clear of the session. */
+    private static final int CSV_CHUNK_SIZE = 500;
+
+    private static final Set<String> CSV_FIELDS = new HashSet<String>(Arrays.asList(
+            "id", "title", "dateadded", "contributor", "contributorsite",
+            "customer", "customersite", "datearchived", "storyattr1",
+            "storyattr2", "storyattr3", "area", "deadline", "description"));
+
     @Autowired
     SessionFactory sessionFactory;
 
@@ -83,6 +100,9 @@ public class HomeController {
     @Autowired
     ApplicationVersion version;
 
+    @Autowired
+    AreaDeleter areaDeleter;
+
     @RequestMapping(value = "/", method = RequestMethod.GET)
     public ModelAndView home(Locale locale, Model model,
             HttpServletResponse response) {
@@ -93,7 +113,7 @@ public class HomeController {
         List<String> adminAreas = null;
         List<String> nonAdminAreas = null;
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -102,6 +122,7 @@ public class HomeController {
 
             Query allAreasQuery = session
                     .createQuery("from Area order by name");
+            allAreasQuery.setCacheable(true);
             List<Area> allAreas = Util.castList(Area.class,
                     allAreasQuery.list());
 
@@ -148,7 +169,8 @@ public class HomeController {
     public ModelAndView areaedit(Locale locale, Model model,
             @PathVariable String areaName) throws JsonGenerationException,
             JsonMappingException, IOException {
-        Area area = Util.getArea(areaName, sessionFactory);
+        //The options are regrouped below, so the shared cached area can't be used
+        Area area = AreaMetadataCache.load(areaName, sessionFactory);
 
         File dir = new File(context.getRealPath("/resources/image"));
         String[] icons = dir.list(new FilenameFilter() {
@@ -174,7 +196,7 @@ public class HomeController {
             currentAttr.setOptions(newOptions);
         }
 
-        String seriesIdsString = new ObjectMapper()
+        String seriesIdsString = JsonMappers.withChildren()
                 .writeValueAsString(seriesIds);
 
         ModelAndView view = new ModelAndView("areaedit");
@@ -284,7 +306,7 @@ public class HomeController {
             @RequestParam List<Integer> ids, @PathVariable String areaName) {
         List<Story> stories = null;
         Area area = null;
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
 
         try {
@@ -302,7 +324,7 @@ public class HomeController {
             Query storyQuery = session
                     .createQuery("select distinct s from Story s "
                             + "left join fetch s.children "
-                            + "where s.area like ? and s.id in (:ids)");
+                            + "where s.area = ? and s.id in (:ids)");
             storyQuery.setParameter(0, area);
             storyQuery.setParameterList("ids", ids);
 
@@ -348,11 +370,13 @@ public class HomeController {
             view.setViewName("area-noexist");
         } else {
             view.setViewName("story-task");
+            //Read before the data, so that the client gets all changes made after it
+            long revision = ChangeLog.getRevision(area.getName());
 
             String jsonNonArchivedStories = "";
             String jsonAreaData = "";
             HashMap<Integer, Story> map = new HashMap<Integer, Story>();
-            Session session = sessionFactory.openSession();
+            Session session = UnitOfWork.openSession(sessionFactory);
             Transaction tx = null;
             try {
                 tx = session.beginTransaction();
@@ -365,41 +389,58 @@ public class HomeController {
                 adminAreas = getAdminAreaNames(session, username);
                 adminAreas.remove(area.getName());
 
+                long generation = SnapshotCache.getGeneration(area.getName());
+                String snapshotView = "story-task-page|" + order;
+                SnapshotCache.Page snapshot = null;
                 if (!archivedView) {
+                    snapshot = (SnapshotCache.Page) SnapshotCache.get(area.getName(), snapshotView);
+                }
+
+                if (snapshot != null) {
+                    nonArchivedStories = getPageItems(session, Story.class, snapshot);
+                    for (Story s : nonArchivedStories) {
+                        Hibernate.initialize(s.getChildren());
+                    }
+                } else if (!archivedView) {
                     String queryString = null;
                     if (order.contains("storyAttr")) {
                         // If the user wants to sort by one of the custom created
                         // attributes,
                         // then the attributeOptions needs to be sorted by their
                         // compareValues.
-                        queryString = "select distinct s from Story s "
-                                + "left join fetch s.children "
-                                + "left join fetch s." + order + " as attr "
+                        queryString = "select s from Story s "
+                                + "left join s." + order + " as attr "
                                 + "where s.area = ? " + "and s.archived = false "
                                 + "order by attr.compareValue";
                     } else if (order.matches("title|description|contributor" +
                             "|customer|contributorSite|customerSite")) {
-                        queryString = "select distinct s from Story s "
-                                + "left join fetch s.children "
+                        queryString = "from Story s "
                                 + "where s.area = ? and s.archived = false "
                                 + "order by s." + order;
                     } else { // Fall back to sorting by prio
-                        queryString = "select distinct s from Story s "
-                                + "left join fetch s.children "
+                        queryString = "from Story s "
                                 + "where s.area = ? and s.archived = false "
                                 + "order by s.prio";
                     }
                     Query query = session.createQuery(queryString);
                     query.setParameter(0, area);
-                    nonArchivedStories = Util.castList(Story.class, query.list());
+                    nonArchivedStories = StoryTaskLoader.load(area.getName(), session, query);
                 }
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = JsonMappers.withChildren();
 
                 for (Story s : nonArchivedStories) {
                     map.put(s.getId(), s);
                 }
                 try {
-                    jsonNonArchivedStories = mapper.writeValueAsString(map);
+                    if (snapshot != null) {
+                        jsonNonArchivedStories = snapshot.getJson();
+                    } else {
+                        jsonNonArchivedStories = mapper.writeValueAsString(map);
+                        if (!archivedView) {
+                            putPageSnapshot(area.getName(), snapshotView, generation,
+                                    nonArchivedStories, jsonNonArchivedStories);
+                        }
+                    }
                     jsonAreaData = mapper.writeValueAsString(area);
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -433,6 +474,7 @@ public class HomeController {
             view.addObject("jsonDataNonArchivedStories", jsonNonArchivedStories);
             view.addObject("jsonAreaData", jsonAreaData);
             view.addObject("archivedView", archivedView);
+            view.addObject("revision", revision);
         }
         view.addObject("version", version.getVersion());
         view.addObject("versionNoDots", version.getVersion().replace(".", ""));
@@ -460,16 +502,30 @@ public class HomeController {
             view.setViewName("area-noexist");
         } else {
             view.setViewName("epic-story");
+            //Read before the data, so that the client gets all changes made after it
+            long revision = ChangeLog.getRevision(area.getName());
 
             String jsonNonArchivedEpics = "";
             String jsonAreaData = "";
             HashMap<Integer, Epic> map = new HashMap<Integer, Epic>();
-            Session session = sessionFactory.openSession();
+            Session session = UnitOfWork.openSession(sessionFactory);
             Transaction tx = null;
             try {
                 tx = session.beginTransaction();
 
+                long generation = SnapshotCache.getGeneration(area.getName());
+                String snapshotView = "epic-story-page|" + order;
+                SnapshotCache.Page snapshot = null;
                 if (!archivedView) {
+                    snapshot = (SnapshotCache.Page) SnapshotCache.get(area.getName(), snapshotView);
+                }
+
+                if (snapshot != null) {
+                    nonArchivedEpics = getPageItems(session, Epic.class, snapshot);
+                    for (Epic e : nonArchivedEpics) {
+                        Hibernate.initialize(e.getChildren());
+                    }
+                } else if (!archivedView) {
                     String queryString = null;
                     if (order.matches("title|description")) {
                         queryString = "select distinct e from Epic e "
@@ -488,13 +544,21 @@ public class HomeController {
                     nonArchivedEpics = Util.castList(Epic.class, query.list());
                 }
 
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = JsonMappers.withChildren();
 
                 for (Epic e : nonArchivedEpics) {
                     map.put(e.getId(), e);
                 }
                 try {
-                    jsonNonArchivedEpics = mapper.writeValueAsString(map);
+                    if (snapshot != null) {
+                        jsonNonArchivedEpics = snapshot.getJson();
+                    } else {
+                        jsonNonArchivedEpics = mapper.writeValueAsString(map);
+                        if (!archivedView) {
+                            putPageSnapshot(area.getName(), snapshotView, generation,
+                                    nonArchivedEpics, jsonNonArchivedEpics);
+                        }
+                    }
                     jsonAreaData = mapper.writeValueAsString(area);
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -527,6 +591,7 @@ public class HomeController {
             view.addObject("jsonDataNonArchivedEpics", jsonNonArchivedEpics);
             view.addObject("jsonAreaData", jsonAreaData);
             view.addObject("archivedView", archivedView);
+            view.addObject("revision", revision);
         }
         view.addObject("version", version.getVersion());
         view.addObject("versionNoDots", version.getVersion().replace(".", ""));
@@ -554,16 +619,30 @@ public class HomeController {
             view.setViewName("area-noexist");
         } else {
             view.setViewName("theme-epic");
+            //Read before the data, so that the client gets all changes made after it
+            long revision = ChangeLog.getRevision(area.getName());
 
             HashMap<Integer, Theme> map = new HashMap<Integer, Theme>();
             String jsonNonArchivedThemes = "";
             String jsonAreaData = "";
-            Session session = sessionFactory.openSession();
+            Session session = UnitOfWork.openSession(sessionFactory);
             Transaction tx = null;
             try {
                 tx = session.beginTransaction();
 
+                long generation = SnapshotCache.getGeneration(area.getName());
+                String snapshotView = "theme-epic-page|" + order;
+                SnapshotCache.Page snapshot = null;
                 if (!archivedView) {
+                    snapshot = (SnapshotCache.Page) SnapshotCache.get(area.getName(), snapshotView);
+                }
+
+                if (snapshot != null) {
+                    nonArchivedThemes = getPageItems(session, Theme.class, snapshot);
+                    for (Theme t : nonArchivedThemes) {
+                        Hibernate.initialize(t.getChildren());
+                    }
+                } else if (!archivedView) {
                     String queryString = null;
                     if (order.matches("title||description")) {
                         queryString = "select distinct t from Theme t "
@@ -585,10 +664,18 @@ public class HomeController {
                         map.put(t.getId(), t);
                     }
                 }
-                ObjectMapper mapper = new ObjectMapper();
+                ObjectMapper mapper = JsonMappers.withChildren();
 
                 try {
-                    jsonNonArchivedThemes = mapper.writeValueAsString(map);
+                    if (snapshot != null) {
+                        jsonNonArchivedThemes = snapshot.getJson();
+                    } else {
+                        jsonNonArchivedThemes = mapper.writeValueAsString(map);
+                        if (!archivedView) {
+                            putPageSnapshot(area.getName(), snapshotView, generation,
+                                    nonArchivedThemes, jsonNonArchivedThemes);
+                        }
+                    }
                     jsonAreaData = mapper.writeValueAsString(area);
                 } catch (Exception e) {
                     e.printStackTrace();
@@ -620,6 +707,7 @@ public class HomeController {
             view.addObject("jsonDataNonArchivedThemes", jsonNonArchivedThemes);
             view.addObject("jsonAreaData", jsonAreaData);
             view.addObject("archivedView", archivedView);
+            view.addObject("revision", revision);
         }
         view.addObject("version", version.getVersion());
         view.addObject("versionNoDots", version.getVersion().replace(".", ""));
@@ -629,124 +717,249 @@ public class HomeController {
         return view;
     }
 
+    /**
+     * Caches the item ids and JSON data of a backlog page.
+     * @param areaName the area
+     * @param snapshotView the page and the order it's sorted by
+     * @param generation generation of the area when reading of the items started
+     * @param items the items shown on the page
+     * @param json the JSON data of the items
+     */
+    private void putPageSnapshot(String areaName, String snapshotView, long generation,
+            List<? extends Ranked> items, String json) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Ranked item : items) {
+            ids.add(item.getId());
+        }
+        //Two bytes per char of the JSON data, and an Integer per id
+        int size = json.length() * 2 + ids.size() * 16;
+        SnapshotCache.put(areaName, snapshotView, generation,
+                new SnapshotCache.Page(ids, json), size);
+    }
+
+    /**
+     * Reads the items of a cached backlog page, in the order they are shown.
+     * The items and their children are mostly found in the second-level
+     * cache. Items that have been deleted since the page was cached are left out.
+     * @param session hibernate session
+     * @param type the type of the items
+     * @param snapshot the cached page
+     * @return the items
+     */
+    private <T extends Ranked> List<T> getPageItems(Session session, Class<T> type,
+            SnapshotCache.Page snapshot) {
+        List<T> items = new ArrayList<T>();
+        for (Integer id : snapshot.getIds()) {
+            T item = type.cast(session.get(type, id));
+            if (item != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Writes the requested fields of all stories as comma-separated data.
+     * The stories are scrolled through in chunks and written directly to the
+     * response, which is gzipped if the client accepts it. Without any fields
+     * a page describing the parameters is shown.
+     */
     @RequestMapping(value = "/comma-separated-data", method = RequestMethod.GET)
     public ModelAndView getCommaSepList(
             @RequestParam(required = false, value = "archived") Boolean archived,
-            @RequestParam(required = false, value = "fields") List<String> fields) {
-        String data = null;
+            @RequestParam(required = false, value = "fields") List<String> fields,
+            @RequestParam(required = false, value = "area") String areaName,
+            @RequestHeader(required = false, value = "Accept-Encoding") String acceptEncoding,
+            HttpServletResponse response) throws IOException {
         String error = null;
         if (fields != null && !fields.isEmpty()) {
-            StringBuilder sb = new StringBuilder();
-            Session session = sessionFactory.openSession();
-            Transaction tx = null;
-            try {
-                tx = session.beginTransaction();
-
-                String queryString = null;
-                if (archived == null) {
-                    queryString = "from Story s";
-                } else {
-                    queryString = "from Story s " + "where s.archived = "
-                            + archived;
+            List<String> csvFields = new ArrayList<String>();
+            Set<String> invalidFields = new LinkedHashSet<String>();
+            for (String field : fields) {
+                field = field.toLowerCase();
+                csvFields.add(field);
+                if (!CSV_FIELDS.contains(field)) {
+                    invalidFields.add(field);
                 }
+            }
+            if (invalidFields.isEmpty()) {
+                writeCommaSepList(archived, csvFields, areaName, acceptEncoding, response);
+                return null;
+            }
+            StringBuilder errSB = new StringBuilder();
+            for (String s : invalidFields) {
+                errSB.append("'").append(s).append("', ");
+            }
+            errSB.append("are not valid field(s)");
+            error = errSB.toString();
+        }
+        ModelAndView view = new ModelAndView();
+        view.addObject("errorStr", error);
+        view.addObject("versionNoDots", version.getVersion().replace(".", ""));
+        return view;
+    }
 
-                Query query = session.createQuery(queryString);
-                List<Story> stories = Util.castList(Story.class, query.list());
-                HashSet<String> invalidFields = new HashSet<String>();
-
-                SimpleDateFormat sdf = new SimpleDateFormat(
-                        "M/d/yy HH:mm:ss.SS");
-                for (Story s : stories) {
-                    for (String field : fields) {
-                        field = field.toLowerCase();
-                        sb.append('"');
-                        if (field.equals("id")) {
-                            sb.append(s.getId());
-                        } else if (field.equals("title")) {
-                            sb.append(s.getTitle().replaceAll(
-                                    "/\r\n+|\r+|\n+|\t+/i", ""));
-                        } else if (field.equals("dateadded")) {
-                            if (s.getAdded() != null) {
-                                sb.append(sdf.format(s.getAdded()));
-                            }
-                        } else if (field.equals("contributor")) {
-                            sb.append(s.getContributor());
-                        } else if (field.equals("contributorsite")) {
-                            sb.append(s.getContributorSite());
-                        } else if (field.equals("datearchived")) {
-                            if (s.getDateArchived() != null) {
-                                sb.append(sdf.format(s.getDateArchived()));
-                            }
-                        } else if (field.equals("storyattr1")) {
-                            AttributeOption attr = s.getStoryAttr1();
-                            String attrStr = "";
-                            if (attr != null) {
-                                attrStr = attr.getName();
-                            }
-                            sb.append(attrStr);
-                        } else if (field.equals("storyattr2")) {
-                            AttributeOption attr = s.getStoryAttr2();
-                            String attrStr = "";
-                            if (attr != null) {
-                                attrStr = attr.getName();
-                            }
-                            sb.append(attrStr);
-                        } else if (field.equals("storyattr3")) {
-                            AttributeOption attr = s.getStoryAttr3();
-                            String attrStr = "";
-                            if (attr != null) {
-                                attrStr = attr.getName();
-                            }
-                            sb.append(attrStr);
-                        } else if (field.equals("area")) {
-                            sb.append(s.getArea().getName());
-                        } else if (field.equals("deadline")) {
-                            if (s.getDeadline() != null) {
-                                sb.append(sdf.format(s.getDeadline()));
-                            }
-                        } else if (field.equals("customer")) {
-                            sb.append(s.getCustomer());
-                        } else if (field.equals("customersite")) {
-                            sb.append(s.getCustomerSite());
-                        } else if (field.equals("description")) {
-                            sb.append(s.getDescription().replaceAll(
-                                    "/\r\n+|\r+|\n+|\t+/i", ""));
-                        } else {
-                            invalidFields.add(field);
+    private void writeCommaSepList(Boolean archived, List<String> fields, String areaName,
+            String acceptEncoding, HttpServletResponse response) throws IOException {
+        response.setContentType("text/csv;charset=UTF-8");
+        //The encoding depends on Accept-Encoding, also when it isn't gzip
+        response.setHeader("Vary", "Accept-Encoding");
+        OutputStream out = response.getOutputStream();
+        if (acceptsGzip(acceptEncoding)) {
+            response.setHeader("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(out);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+
+        boolean complete = false;
+        Session session = UnitOfWork.openSession(sessionFactory);
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+
+            StringBuilder queryString = new StringBuilder("select s, a.name from Story s join s.area a where 1=1");
+            if (archived != null) {
+                queryString.append(" and s.archived = :archived");
+            }
+            if (areaName != null) {
+                queryString.append(" and a.name = :area");
+            }
+            queryString.append(" order by s.id");
+
+            Query query = session.createQuery(queryString.toString());
+            if (archived != null) {
+                query.setBoolean("archived", archived);
+            }
+            if (areaName != null) {
+                query.setString("area", areaName);
+            }
+            query.setReadOnly(true);
+            query.setFetchSize(CSV_CHUNK_SIZE);
+
+            SimpleDateFormat sdf = new SimpleDateFormat(
+                    "M/d/yy HH:mm:ss.SS");
+            ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                int rows = 0;
+                while (results.next()) {
+                    Story s = (Story) results.get(0);
+                    String storyAreaName = (String) results.get(1);
+                    for (int i = 0; i < fields.size(); i++) {
+                        if (i > 0) {
+                            writer.write(',');
                         }
-                        sb.append('"');
-                        sb.append(',');
+                        writeCsvValue(writer, getCsvValue(s, storyAreaName, fields.get(i), sdf));
+                    }
+                    writer.write('\n');
+                    if (++rows % CSV_CHUNK_SIZE == 0) {
+                        //The written stories aren't needed any more
+                        session.clear();
+                        writer.flush();
                     }
-                    sb.deleteCharAt(sb.length() - 1); // remove last
-                                                      // comma-character
-                    sb.append('\n');
                 }
+            } finally {
+                results.close();
+            }
+            tx.commit();
+            complete = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            if (response.isCommitted()) {
+                //Abort the response, so that the client doesn't take the data
+                //written so far as the whole list
+                throw new IOException("Failed to write the comma-separated data", e);
+            }
+            response.reset();
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            session.close();
+        }
+        if (complete) {
+            writer.close();
+        }
+    }
 
-                if (invalidFields.isEmpty()) {
-                    data = sb.toString();
-                } else {
-                    StringBuilder errSB = new StringBuilder();
-                    for (String s : invalidFields) {
-                        errSB.append("'").append(s).append("', ");
+    /**
+     * @param acceptEncoding the Accept-Encoding header of the request, or null
+     * @return true if gzip is listed with a q-value above 0
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip")) {
+                continue;
+            }
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
                     }
-                    errSB.append("are not valid field(s)");
-                    error = errSB.toString();
                 }
-                tx.commit();
-            } catch (Exception e) {
-                e.printStackTrace();
-                if (tx != null) {
-                    tx.rollback();
+            }
+            return q > 0;
+        }
+        return false;
+    }
+
+    private static String getCsvValue(Story s, String areaName, String field, SimpleDateFormat sdf) {
+        if (field.equals("id")) {
+            return String.valueOf(s.getId());
+        } else if (field.equals("title")) {
+            return s.getTitle();
+        } else if (field.equals("dateadded")) {
+            return s.getAdded() != null ? sdf.format(s.getAdded()) : null;
+        } else if (field.equals("contributor")) {
+            return s.getContributor();
+        } else if (field.equals("contributorsite")) {
+            return s.getContributorSite();
+        } else if (field.equals("datearchived")) {
+            return s.getDateArchived() != null ? sdf.format(s.getDateArchived()) : null;
+        } else if (field.equals("storyattr1")) {
+            return s.getStoryAttr1() != null ? s.getStoryAttr1().getName() : null;
+        } else if (field.equals("storyattr2")) {
+            return s.getStoryAttr2() != null ? s.getStoryAttr2().getName() : null;
+        } else if (field.equals("storyattr3")) {
+            return s.getStoryAttr3() != null ? s.getStoryAttr3().getName() : null;
+        } else if (field.equals("area")) {
+            return areaName;
+        } else if (field.equals("deadline")) {
+            return s.getDeadline() != null ? sdf.format(s.getDeadline()) : null;
+        } else if (field.equals("customer")) {
+            return s.getCustomer();
+        } else if (field.equals("customersite")) {
+            return s.getCustomerSite();
+        } else if (field.equals("description")) {
+            return s.getDescription();
+        }
+        throw new IllegalArgumentException("Invalid field " + field);
+    }
+
+    /**
+     * Writes a value within quotes, where quotes in the value are doubled.
+     */
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        writer.write('"');
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
                 }
-            } finally {
-                session.close();
+                writer.write(c);
             }
         }
-        ModelAndView view = new ModelAndView();
-        view.addObject("errorStr", error);
-        view.addObject("dataString", data);
-        view.addObject("versionNoDots", version.getVersion().replace(".", ""));
-        return view;
+        writer.write('"');
     }
 
     /**
@@ -763,6 +976,7 @@ public class HomeController {
         User currentUser = (User) session.get(User.class, username);
 
         Query allAreasQuery = session.createQuery("from Area order by name");
+        allAreasQuery.setCacheable(true);
         List<Area> allAreas = Util.castList(Area.class, allAreasQuery.list());
 
         for (Area currentArea : allAreas) {
@@ -784,14 +998,14 @@ public class HomeController {
     private boolean isDisableEdits(String areaName) {
         Authentication auth = SecurityContextHolder.getContext()
                 .getAuthentication();
-        if (!isLoggedIn()) {
-            // Not logged in, edits must be disabled.
+        if (!isLoggedIn() || areaDeleter.isDeleting(areaName)) {
+            // Not logged in or area being deleted, edits must be disabled.
             return true;
         }
         String username = auth.getName();
         boolean disableEdits = true;
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -0,0 +1,124 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+
+/**
+ * Connection pool that also measures how long it takes to get a connection
+ * from it. It is the only pool of the application and is shared by Hibernate
+ * and the remember-me token repository. The pool is configured with the
+ * db.pool.* settings in backlogtool.properties.
+ * <p>
+ * Connections are validated when they are borrowed and while they are idle,
+ * so that connections broken by a database restart are replaced. If no
+ * validation query is configured, one is chosen from the Hibernate dialect.
+ */
+public class InstrumentedDataSource extends BasicDataSource {
+
+    private static final String POSTGRESQL_VALIDATION_QUERY = "SELECT 1";
+
+    private static final String HSQL_VALIDATION_QUERY =
+            "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+
+    private String dialect = "";
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param dialect the Hibernate dialect, used to choose the validation query
+     */
+    public void setDialect(String dialect) {
+        this.dialect = dialect != null ? dialect : "";
+    }
+
+    @Override
+    protected synchronized DataSource createDataSource() throws SQLException {
+        if (getValidationQuery() == null) {
+            if (dialect.contains("PostgreSQL")) {
+                setValidationQuery(POSTGRESQL_VALIDATION_QUERY);
+            } else if (dialect.contains("HSQL")) {
+                setValidationQuery(HSQL_VALIDATION_QUERY);
+            } else {
+                throw new SQLException("No db.pool.validationQuery is set and none is known for the dialect "
+                        + dialect);
+            }
+        }
+        return super.createDataSource();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection();
+            long wait = System.nanoTime() - start;
+            borrowed.incrementAndGet();
+            totalWaitNanos.addAndGet(wait);
+            long maxWait = maxWaitNanos.get();
+            while (wait > maxWait && !maxWaitNanos.compareAndSet(maxWait, wait)) {
+                maxWait = maxWaitNanos.get();
+            }
+            return connection;
+        } catch (SQLException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                //No connection was returned to the pool within maxWait
+                timeouts.incrementAndGet();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the current size and usage of the pool and how long it has
+     * taken to get connections from it since startup
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        long borrowedCount = borrowed.get();
+        stats.put("maxActive", getMaxActive());
+        stats.put("maxIdle", getMaxIdle());
+        stats.put("active", getNumActive());
+        stats.put("idle", getNumIdle());
+        stats.put("borrowed", borrowedCount);
+        stats.put("averageWaitMillis", borrowedCount > 0
+                ? totalWaitNanos.get() / borrowedCount / 1000000.0 : 0.0);
+        stats.put("maxWaitMillis", maxWaitNanos.get() / 1000000.0);
+        stats.put("timeouts", timeouts.get());
+        return stats;
+    }
+
+}
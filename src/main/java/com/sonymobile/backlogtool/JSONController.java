@@ -29,39 +29,39 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator; 
 
 import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.atmosphere.cpr.ApplicationConfig;
 import org.atmosphere.cpr.AtmosphereResource;
 import org.atmosphere.cpr.AtmosphereResourceFactory;
 import org.atmosphere.cpr.Broadcaster;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.hibernate.Hibernate;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -70,6 +70,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.sonymobile.backlogtool.permission.PermissionCache;
 import com.sonymobile.backlogtool.permission.User;
 
 
@@ -93,9 +94,18 @@ public class JSONController {
     private static final int UPDATE_ITEM_ARCHIVED = 1;
     private static final int UPDATE_ITEM_UNARCHIVED = 2;
 
+    /** Number of items kept in memory at a time when streaming a backlog. */
+    private static final int STREAM_CHUNK_SIZE = 100;
+
     @Autowired
     SessionFactory sessionFactory;
 
+    @Autowired
+    PermissionCache permissionCache;
+
+    @Autowired
+    AreaDeleter areaDeleter;
+
     @Autowired
     ServletContext context;
 
@@ -123,12 +133,19 @@ public class JSONController {
     //        }
 
     @RequestMapping(value="/readstory-task/{areaName}", method=RequestMethod.GET)
-    @Transactional
-    public @ResponseBody List<Story> printJsonStories(@PathVariable String areaName,
-            @RequestParam String order) {
+    public void printJsonStories(@PathVariable String areaName,
+            @RequestParam String order, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        String snapshotView = STORY_TASK_VIEW + "|" + order;
+        byte[] snapshot = (byte[]) SnapshotCache.get(areaName, snapshotView);
+        if (snapshot != null) {
+            response.getOutputStream().write(snapshot);
+            return;
+        }
+        long generation = SnapshotCache.getGeneration(areaName);
         List<Story> list = null;
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -136,26 +153,23 @@ public class JSONController {
             if (order.contains("storyAttr")) {
                 //If the user wants to sort by one of the custom created attributes, then the attributeOptions
                 //needs to be sorted by their compareValues.
-                String queryString1 = "select distinct s from Story s " +
-                        "left join fetch s.children " +
-                        "left join fetch s." + order + " as attr " +
-                        "where s.area.name like ? " +
+                String queryString1 = "select s from Story s " +
+                        "left join s." + order + " as attr " +
+                        "where s.area.name = ? " +
                         "order by attr.compareValue";
                 Query query1 = session.createQuery(queryString1);
                 query1.setParameter(0, areaName);
 
-                list = Util.castList(Story.class, query1.list());
+                list = StoryTaskLoader.load(areaName, session, query1);
             } else if (order.equals("prio")) {
-                String nonArchivedQueryString = "select distinct s from Story s " +
-                        "left join fetch s.children " +
-                        "where s.area.name like ? and " +
+                String nonArchivedQueryString = "from Story s " +
+                        "where s.area.name = ? and " +
                         "s.archived=false " +
                         "order by s.prio";
                 
                 //Since the archived stories don't have any prio, we order them by their date archived.
-                String archivedQueryString = "select distinct s from Story s " +
-                        "left join fetch s.children " +
-                        "where s.area.name like ? " +
+                String archivedQueryString = "from Story s " +
+                        "where s.area.name = ? " +
                         "and s.archived=true " +
                         "order by s.dateArchived desc";
 
@@ -165,17 +179,15 @@ public class JSONController {
                 archivedQuery.setParameter(0, areaName);
                 nonArchivedQuery.setParameter(0, areaName);
 
-                list = Util.castList(Story.class, nonArchivedQuery.list());
-                list.addAll(Util.castList(Story.class, archivedQuery.list()));
+                list = StoryTaskLoader.load(areaName, session, nonArchivedQuery, archivedQuery);
             } else {
-                String queryString = "select distinct s from Story s " +
-                        "left join fetch s.children " +
-                        "where s.area.name like ? " +
+                String queryString = "from Story s " +
+                        "where s.area.name = ? " +
                         "order by s." + order;
                 Query query = session.createQuery(queryString);
                 query.setParameter(0, areaName);
 
-                list = Util.castList(Story.class, query.list());
+                list = StoryTaskLoader.load(areaName, session, query);
             }
             tx.commit();
         } catch (Exception e) {
@@ -186,34 +198,46 @@ public class JSONController {
         } finally {
             session.close();
         }
-        return list;
+        snapshot = JsonMappers.withChildren().writeValueAsString(list).getBytes("UTF-8");
+        if (list != null) {
+            SnapshotCache.put(areaName, snapshotView, generation, snapshot, snapshot.length);
+        }
+        response.getOutputStream().write(snapshot);
     }
 
     @RequestMapping(value="/readepic-story/{areaName}", method=RequestMethod.GET)
-    @Transactional
-    public @ResponseBody ResponseEntity<String> printJsonEpics(@PathVariable String areaName, @RequestParam String order)
-            throws JsonGenerationException, JsonMappingException, IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        HttpHeaders responseHeaders = new HttpHeaders();
-        responseHeaders.add("Content-Type", "text/html; charset=utf-8");
-        List<Epic> epics = null;
-
-        Session session = sessionFactory.openSession();
+    public void printJsonEpics(@PathVariable String areaName, @RequestParam String order,
+            HttpServletResponse response) throws IOException {
+        ObjectMapper mapper = JsonMappers.withoutChildren(Story.class);
+        response.setStatus(HttpServletResponse.SC_CREATED);
+        response.setContentType("text/html; charset=utf-8");
+        String snapshotView = EPIC_STORY_VIEW + "|" + order;
+        byte[] snapshot = (byte[]) SnapshotCache.get(areaName, snapshotView);
+        if (snapshot != null) {
+            response.getOutputStream().write(snapshot);
+            return;
+        }
+        long generation = SnapshotCache.getGeneration(areaName);
+
+        SnapshotCache.Recorder recorder = new SnapshotCache.Recorder(response.getOutputStream());
+        JsonGenerator generator = mapper.getJsonFactory()
+                .createJsonGenerator(recorder, JsonEncoding.UTF8);
+        generator.writeStartArray();
+
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
 
             if (order.equals("prio")) {
-                String nonArchivedQueryString = "select distinct e from Epic e " +
-                        "left join fetch e.children " +
-                        "where e.area.name like ? and " +
+                String nonArchivedQueryString = "from Epic e " +
+                        "where e.area.name = ? and " +
                         "e.archived=false " +
                         "order by e.prio";
 
                 //Since the archived epics don't have any prio, we order them by their date archived.
-                String archivedQueryString = "select distinct e from Epic e " +
-                        "left join fetch e.children " +
-                        "where e.area.name like ? " +
+                String archivedQueryString = "from Epic e " +
+                        "where e.area.name = ? " +
                         "and e.archived=true " +
                         "order by e.dateArchived desc";
 
@@ -223,57 +247,70 @@ public class JSONController {
                 archivedQuery.setParameter(0, areaName);
                 nonArchivedQuery.setParameter(0, areaName);
 
-                epics = Util.castList(Epic.class, archivedQuery.list());
-                epics.addAll(Util.castList(Epic.class, nonArchivedQuery.list()));
+                streamParents(BacklogType.EPIC, archivedQuery, mapper, generator, session);
+                streamParents(BacklogType.EPIC, nonArchivedQuery, mapper, generator, session);
             } else {
-                String queryString = "select distinct e from Epic e " +
-                        "left join fetch e.children " +
-                        "where e.area.name like ? " +
+                String queryString = "from Epic e " +
+                        "where e.area.name = ? " +
                         "order by e." + order;
                 Query query = session.createQuery(queryString);
                 query.setParameter(0, areaName);
-                epics = Util.castList(Epic.class, query.list());
+                streamParents(BacklogType.EPIC, query, mapper, generator, session);
             }
-
-            mapper.getSerializationConfig().addMixInAnnotations(Story.class, ChildrenExcluder.class);
             tx.commit();
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
                 tx.rollback();
             }
+            //Leave the array open, so that the client gets a broken response
+            //and reloads instead of showing part of the backlog
+            throw new IOException("Failed to read the backlog of " + areaName, e);
         } finally {
             session.close();
         }
-        return new ResponseEntity<String>(mapper.writeValueAsString(epics), responseHeaders, HttpStatus.CREATED);
+        generator.writeEndArray();
+        generator.close();
 
+        snapshot = recorder.getBytes();
+        if (snapshot != null) {
+            SnapshotCache.put(areaName, snapshotView, generation, snapshot, snapshot.length);
+        }
     }
 
     @RequestMapping(value="/readtheme-epic/{areaName}", method=RequestMethod.GET)
-    @Transactional
-    public @ResponseBody ResponseEntity<String> printJsonThemes(@PathVariable String areaName, @RequestParam String order)
-            throws JsonGenerationException, JsonMappingException, IOException {
-        HttpHeaders responseHeaders = new HttpHeaders();
-        responseHeaders.add("Content-Type", "text/html; charset=utf-8");
-        List<Theme> themes = null;
-        ObjectMapper mapper = new ObjectMapper();
-
-        Session session = sessionFactory.openSession();
+    public void printJsonThemes(@PathVariable String areaName, @RequestParam String order,
+            HttpServletResponse response) throws IOException {
+        ObjectMapper mapper = JsonMappers.withoutChildren(Epic.class);
+        response.setStatus(HttpServletResponse.SC_CREATED);
+        response.setContentType("text/html; charset=utf-8");
+        String snapshotView = THEME_EPIC_VIEW + "|" + order;
+        byte[] snapshot = (byte[]) SnapshotCache.get(areaName, snapshotView);
+        if (snapshot != null) {
+            response.getOutputStream().write(snapshot);
+            return;
+        }
+        long generation = SnapshotCache.getGeneration(areaName);
+
+        SnapshotCache.Recorder recorder = new SnapshotCache.Recorder(response.getOutputStream());
+        JsonGenerator generator = mapper.getJsonFactory()
+                .createJsonGenerator(recorder, JsonEncoding.UTF8);
+        generator.writeStartArray();
+
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
 
             if (order.equals("prio")) {
-                String nonArchivedQueryString = "select distinct t from Theme t " +
-                        "left join fetch t.children " +
-                        "where t.area.name like ? and " +
+                String nonArchivedQueryString = "from Theme t " +
+                        "where t.area.name = ? and " +
                         "t.archived=false " +
                         "order by t.prio";
 
                 //Since the archived themes don't have any prio, we order them by their date archived.
-                String archivedQueryString = "select distinct t from Theme t " +
-                        "left join fetch t.children " +
-                        "where t.area.name like ? " +
+                String archivedQueryString = "from Theme t " +
+                        "where t.area.name = ? " +
                         "and t.archived=true " +
                         "order by t.dateArchived desc";
 
@@ -283,92 +320,214 @@ public class JSONController {
                 archivedQuery.setParameter(0, areaName);
                 nonArchivedQuery.setParameter(0, areaName);
 
-                themes = Util.castList(Theme.class, archivedQuery.list());
-                themes.addAll(Util.castList(Theme.class, nonArchivedQuery.list()));
+                streamParents(BacklogType.THEME, archivedQuery, mapper, generator, session);
+                streamParents(BacklogType.THEME, nonArchivedQuery, mapper, generator, session);
             } else {
-                String queryString = "select distinct t from Theme t " +
-                        "left join fetch t.children " +
-                        "where t.area.name like ? " +
+                String queryString = "from Theme t " +
+                        "where t.area.name = ? " +
                         "order by t." + order;
                 Query query = session.createQuery(queryString);
                 query.setParameter(0, areaName);
-                themes = Util.castList(Theme.class, query.list());
+                streamParents(BacklogType.THEME, query, mapper, generator, session);
             }
-
-            mapper.getSerializationConfig().addMixInAnnotations(Epic.class, ChildrenExcluder.class);
             tx.commit();
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
                 tx.rollback();
             }
+            //Leave the array open, so that the client gets a broken response
+            //and reloads instead of showing part of the backlog
+            throw new IOException("Failed to read the backlog of " + areaName, e);
         } finally {
             session.close();
         }
-        return new ResponseEntity<String>(mapper.writeValueAsString(themes), responseHeaders, HttpStatus.CREATED);
+        generator.writeEndArray();
+        generator.close();
+
+        snapshot = recorder.getBytes();
+        if (snapshot != null) {
+            SnapshotCache.put(areaName, snapshotView, generation, snapshot, snapshot.length);
+        }
+    }
+
+    /**
+     * Writes the epics or themes of a query to the generator while scrolling
+     * through the result. Only one chunk of items is kept in the session at
+     * a time, and the children of a chunk are read with one query.
+     * @param type EPIC or THEME
+     * @param query query selecting the items, without any fetch joins
+     * @param mapper mapper to write the items with
+     * @param generator where to write the items
+     * @param session hibernate session
+     * @throws IOException if writing failed
+     */
+    private static void streamParents(BacklogType type, Query query, ObjectMapper mapper,
+            JsonGenerator generator, Session session) throws IOException {
+        query.setFetchSize(STREAM_CHUNK_SIZE);
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            List<Object> chunk = new ArrayList<Object>();
+            boolean hasNext = results.next();
+            while (hasNext) {
+                chunk.add(results.get(0));
+                hasNext = results.next();
+                if (chunk.size() == STREAM_CHUNK_SIZE || !hasNext) {
+                    setChildren(type, chunk, session);
+                    for (Object parent : chunk) {
+                        mapper.writeValue(generator, parent);
+                    }
+                    generator.flush();
+                    chunk.clear();
+                    //The written items aren't needed any more, and must not be flushed
+                    session.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Reads the children of a chunk of stories, epics or themes with one query.
+     * @param type STORY, EPIC or THEME
+     * @param parents the stories, epics or themes
+     * @param session hibernate session
+     */
+    private static void setChildren(BacklogType type, List<Object> parents, Session session) {
+        if (type == BacklogType.STORY) {
+            Query query = session.createQuery("from Task where story in (:parents) order by prioInStory");
+            query.setParameterList("parents", parents);
+            Map<Integer, Set<Task>> children = new HashMap<Integer, Set<Task>>();
+            for (Task task : Util.castList(Task.class, query.list())) {
+                Set<Task> tasks = children.get(task.getParentId());
+                if (tasks == null) {
+                    tasks = new LinkedHashSet<Task>();
+                    children.put(task.getParentId(), tasks);
+                }
+                tasks.add(task);
+            }
+            for (Object parent : parents) {
+                Story story = (Story) parent;
+                Set<Task> tasks = children.get(story.getId());
+                story.setChildren(tasks != null ? tasks : new LinkedHashSet<Task>());
+            }
+        } else if (type == BacklogType.EPIC) {
+            Query query = session.createQuery("from Story where epic in (:parents) order by prioInEpic");
+            query.setParameterList("parents", parents);
+            Map<Integer, Set<Story>> children = new HashMap<Integer, Set<Story>>();
+            for (Story story : Util.castList(Story.class, query.list())) {
+                Set<Story> stories = children.get(story.getEpicId());
+                if (stories == null) {
+                    stories = new LinkedHashSet<Story>();
+                    children.put(story.getEpicId(), stories);
+                }
+                stories.add(story);
+            }
+            for (Object parent : parents) {
+                Epic epic = (Epic) parent;
+                Set<Story> stories = children.get(epic.getId());
+                epic.setChildren(stories != null ? stories : new LinkedHashSet<Story>());
+            }
+        } else if (type == BacklogType.THEME) {
+            Query query = session.createQuery("from Epic where theme in (:parents) order by prioInTheme");
+            query.setParameterList("parents", parents);
+            Map<Integer, Set<Epic>> children = new HashMap<Integer, Set<Epic>>();
+            for (Epic epic : Util.castList(Epic.class, query.list())) {
+                Set<Epic> epics = children.get(epic.getThemeId());
+                if (epics == null) {
+                    epics = new LinkedHashSet<Epic>();
+                    children.put(epic.getThemeId(), epics);
+                }
+                epics.add(epic);
+            }
+            for (Object parent : parents) {
+                Theme theme = (Theme) parent;
+                Set<Epic> epics = children.get(theme.getId());
+                theme.setChildren(epics != null ? epics : new LinkedHashSet<Epic>());
+            }
+        } else {
+            throw new RuntimeException("Invalid type specified");
+        }
     }
     
+    /**
+     * Reads a page of archived items, ordered by the date they were archived.
+     * A page can be read from the cursor returned with the page before it,
+     * which doesn't have to skip all items on the pages before. Without a
+     * cursor the page is found by its position.
+     * @param areaName
+     * @param filterIds
+     * @param type Story, Epic or Theme
+     * @param page the page number, starting at 1
+     * @param cursor nextCursor of the page before, if known
+     * @return JSON with the page count, the items and the cursor of the next page
+     * @throws JsonGenerationException
+     * @throws JsonMappingException
+     * @throws IOException
+     */
     @RequestMapping(value="/read-archived/{areaName}", method=RequestMethod.GET)
-    @Transactional
     public @ResponseBody String readArchived(@PathVariable String areaName,
            @RequestParam(required = false, value = "ids") Set<Integer> filterIds,
-           @RequestParam String type, @RequestParam int page) throws JsonGenerationException, JsonMappingException, IOException {
+           @RequestParam String type, @RequestParam int page,
+           @RequestParam(required = false) String cursor) throws JsonGenerationException, JsonMappingException, IOException {
 
         List<Object> archivedItems = new ArrayList<Object>();
         int nbrOfPages = 0;
+        String nextCursor = null;
         Area area = null;
+        boolean filtered = filterIds != null && !filterIds.isEmpty();
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
 
             area = (Area) session.get(Area.class, areaName);
             if (area != null && type.matches("Story|Epic|Theme")) {
-                Query archivedQuery = null;
-                if (filterIds == null || filterIds.isEmpty()) {
-                    archivedQuery = session.createQuery("from " + type + " " +
-                            "where area = ? " +
-                            "and archived=true " +
-                            "order by dateArchived desc");
-                } else {
-                    archivedQuery = session.createQuery("from " + type + " " +
-                            "where area = ? " +
-                            "and archived=true " +
-                            "and id in (:filterIds) " +
-                            "order by dateArchived desc");
-                    archivedQuery.setParameterList("filterIds", filterIds);
+                long[] counts = countArchived(type, area, filterIds, session);
+                nbrOfPages = (int) Math.ceil((double) counts[0] / JSONController.ELEMENTS_PER_ARCHIVED_PAGE);
+
+                //Items without an archived date can't be found from a cursor
+                boolean useCursors = counts[0] == counts[1];
+                long[] position = null;
+                if (useCursors && cursor != null) {
+                    position = parseArchivedCursor(cursor);
                 }
 
-                archivedQuery.setParameter(0, area);
-                archivedQuery.setFirstResult(ELEMENTS_PER_ARCHIVED_PAGE * (page-1));
-                archivedQuery.setMaxResults(ELEMENTS_PER_ARCHIVED_PAGE);
+                StringBuilder queryString = new StringBuilder("from " + type + " " +
+                        "where area = :area " +
+                        "and archived=true ");
+                if (filtered) {
+                    queryString.append("and id in (:filterIds) ");
+                }
+                if (position != null) {
+                    queryString.append("and (dateArchived < :date or (dateArchived = :date and id < :id)) ");
+                }
+                queryString.append("order by dateArchived desc, id desc");
 
-                Query countQuery = null;
-                if (filterIds == null || filterIds.isEmpty()) {
-                    countQuery = session.createQuery("select count(*) from " + type 
-                            + " where archived = true and area = ?");
+                Query archivedQuery = session.createQuery(queryString.toString());
+                archivedQuery.setEntity("area", area);
+                if (filtered) {
+                    archivedQuery.setParameterList("filterIds", filterIds);
+                }
+                if (position != null) {
+                    archivedQuery.setParameter("date", new Date(position[0]));
+                    archivedQuery.setInteger("id", (int) position[1]);
                 } else {
-                    countQuery = session.createQuery("select count(*) from " + type  +
-                            " where archived = true and area = ? "+
-                            " and id in (:filterIds)");
-                    countQuery.setParameterList("filterIds", filterIds);
+                    archivedQuery.setFirstResult(ELEMENTS_PER_ARCHIVED_PAGE * (page-1));
                 }
-                countQuery.setParameter(0, area);
-
-                long nbrOfItems = ((Long) countQuery.iterate().next()).longValue();
-                nbrOfPages = (int) Math.ceil((double) nbrOfItems / JSONController.ELEMENTS_PER_ARCHIVED_PAGE);
+                archivedQuery.setMaxResults(ELEMENTS_PER_ARCHIVED_PAGE);
 
                 archivedItems = Util.castList(Object.class, archivedQuery.list());
+                if (!archivedItems.isEmpty()) {
+                    setChildren(BacklogType.valueOf(type.toUpperCase()), archivedItems, session);
+                }
 
-                for (Object item : archivedItems) {
-                    if (type.equals("Story")) {
-                        Hibernate.initialize(((Story) item).getChildren());
-                    } else if (type.equals("Epic")) {
-                        Hibernate.initialize(((Epic) item).getChildren());
-                    } else if (type.equals("Theme")) {
-                        Hibernate.initialize(((Theme) item).getChildren());
-                    }
+                if (useCursors && archivedItems.size() == ELEMENTS_PER_ARCHIVED_PAGE) {
+                    Ranked last = (Ranked) archivedItems.get(archivedItems.size() - 1);
+                    nextCursor = Long.toString(last.getDateArchived().getTime(), 36)
+                            + "-" + Integer.toString(last.getId(), 36);
                 }
             }
         } catch (Exception e) {
@@ -379,85 +538,89 @@ public class JSONController {
         } finally {
             session.close();
         }
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = JsonMappers.withChildren();
         if (type.equals("Epic")) {
-            mapper.getSerializationConfig().addMixInAnnotations(Story.class, ChildrenExcluder.class);
+            mapper = JsonMappers.withoutChildren(Story.class);
         } else if (type.equals("Theme")) {
-            mapper.getSerializationConfig().addMixInAnnotations(Epic.class, ChildrenExcluder.class);
+            mapper = JsonMappers.withoutChildren(Epic.class);
         }
         Map<String,Object> archivedInfo = new HashMap<String, Object>();
         archivedInfo.put("nbrOfPages", nbrOfPages);
         archivedInfo.put("archivedItems", archivedItems);
+        archivedInfo.put("nextCursor", nextCursor);
         return mapper.writeValueAsString(archivedInfo);
     }
 
-    @RequestMapping(value="/autocompletethemes/{areaName}", method=RequestMethod.GET)
-    @Transactional
-    public @ResponseBody List<String> autocompleteThemes(@PathVariable String areaName, @RequestParam String term) {
-        List<String> titles = null;
+    /**
+     * Counts the archived items of a type. Counts of all items in an area are
+     * cached until the area is changed.
+     * @param type Story, Epic or Theme
+     * @param area
+     * @param filterIds the ids to count among, or null to count all
+     * @param session
+     * @return the number of items, and the number of items with an archived date
+     */
+    private static long[] countArchived(String type, Area area, Set<Integer> filterIds, Session session) {
+        boolean filtered = filterIds != null && !filterIds.isEmpty();
+        String countView = "archived-count|" + type;
+        long generation = SnapshotCache.getGeneration(area.getName());
+        if (!filtered) {
+            long[] counts = (long[]) SnapshotCache.get(area.getName(), countView);
+            if (counts != null) {
+                return counts;
+            }
+        }
+        Query countQuery = null;
+        if (!filtered) {
+            countQuery = session.createQuery("select count(*), count(dateArchived) from " + type
+                    + " where archived = true and area = ?");
+        } else {
+            countQuery = session.createQuery("select count(*), count(dateArchived) from " + type +
+                    " where archived = true and area = ? "+
+                    " and id in (:filterIds)");
+            countQuery.setParameterList("filterIds", filterIds);
+        }
+        countQuery.setParameter(0, area);
+        Object[] row = (Object[]) countQuery.uniqueResult();
+        long[] counts = {((Number) row[0]).longValue(), ((Number) row[1]).longValue()};
+        if (!filtered) {
+            SnapshotCache.put(area.getName(), countView, generation, counts, 16);
+        }
+        return counts;
+    }
 
-        Session session = sessionFactory.openSession();
-        Transaction tx = null;
+    /**
+     * @param cursor a cursor returned by readArchived
+     * @return the archived date (as time) and id of the last item before the page,
+     * or null if the cursor is invalid
+     */
+    private static long[] parseArchivedCursor(String cursor) {
+        String[] parts = cursor.split("-");
+        if (parts.length != 2) {
+            return null;
+        }
         try {
-            tx = session.beginTransaction();
-
-            Query query = session.createQuery("select title from Theme where area.name like ? and lower(title) like ?");
-            query.setParameter(0, areaName);
-            query.setParameter(1, "%" + term.toLowerCase() + "%");
-            //% for contains
-            titles = Util.castList(String.class, query.list());
-            tx.commit();
-        } catch (Exception e) {
-            e.printStackTrace();
-            if (tx != null) {
-                tx.rollback();
-            }
-        } finally {
-            session.close();
+            return new long[] {Long.parseLong(parts[0], 36), Integer.parseInt(parts[1], 36)};
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return titles;
+    }
+
+    @RequestMapping(value="/autocompletethemes/{areaName}", method=RequestMethod.GET)
+    public @ResponseBody List<String> autocompleteThemes(@PathVariable String areaName, @RequestParam String term) {
+        return AutocompleteIndex.findThemes(areaName, term, sessionFactory);
     }
 
     @RequestMapping(value="/autocompleteepics/{areaName}", method=RequestMethod.GET)
-    @Transactional
     public @ResponseBody List<String> autocompleteEpics(@PathVariable String areaName,
             @RequestParam String term, @RequestParam String theme) {
-        List<String> titles = null;
-
-        Session session = sessionFactory.openSession();
-        Transaction tx = null;
-        try {
-            tx = session.beginTransaction();
-            Query query = null;
-            if (theme.isEmpty()) {
-                query = session.createQuery("select title from Epic where area.name like ? and lower(title) like ? " +
-                        "and theme is null");
-            } else {
-                query = session.createQuery("select title from Epic where area.name like ? and lower(title) like ? " +
-                        "and lower(theme.title) like ?");
-                query.setParameter(2, theme.toLowerCase());
-            }
-            query.setParameter(0, areaName);
-            query.setParameter(1, "%" + term.toLowerCase() + "%");
-            //% for contains
-            titles = Util.castList(String.class, query.list());
-            tx.commit();
-        } catch (Exception e) {
-            e.printStackTrace();
-            if (tx != null) {
-                tx.rollback();
-            }
-        } finally {
-            session.close();
-        }
-        return titles;
+        return AutocompleteIndex.findEpics(areaName, term, theme, sessionFactory);
     }
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/createtask/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Task createTask(@PathVariable String areaName, @RequestBody NewTaskContainer newTask) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -511,9 +674,8 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/createstory/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Story createStory(@PathVariable String areaName, @RequestBody NewStoryContainer newStory) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -551,33 +713,18 @@ public class JSONController {
             }
 
             //Move other stories
-            Query storyQuery = session.createQuery("from Story where area like ? and archived=false order by prio desc");
-            storyQuery.setParameter(0, area);
-            List<Story> storyList = Util.castList(Story.class, storyQuery.list());
-
-            if (storyList.isEmpty()) {
-                newStory.setPrio(1);
-            } else {
-                int newPrio = storyList.get(0).getPrio() + 1;
-                if (lastItem != null && lastItem.getType().equals("parent")) {
-                    for (Story story : storyList) {
-                        //Find what prio lastItem has
-                        if (story.getId() == lastItem.getId()) {
-                            newPrio = story.getPrio() + 1;
-
-                            //Move down all stories below the new story
-                            for (Story currentStory : storyList) {
-                                int prio = currentStory.getPrio();
-                                if (prio >= newPrio) {
-                                    currentStory.addPrio(1);
-                                }
-                            }
-                            break;
-                        }
-                    }
+            int newPrio = Util.getNextPrio(BacklogType.STORY, area, session);
+            if (lastItem != null && lastItem.getType().equals("parent")) {
+                Story lastStory = (Story) session.get(Story.class, lastItem.getId());
+                if (lastStory != null && !lastStory.isArchived()
+                        && lastStory.getArea().getName().equals(areaName)) {
+                    newPrio = lastStory.getPrio() + 1;
+
+                    //Move down all stories below the new story
+                    RankAllocator.shiftRanks(BacklogType.STORY, area, lastStory.getPrio(), 1, session);
                 }
-                newStory.setPrio(newPrio);
             }
+            newStory.setPrio(newPrio);
             newStory.setArea(area);
             newStory.setEpic(epic);
             newStory.setTheme(theme);
@@ -592,6 +739,12 @@ public class JSONController {
             }
 
             tx.commit();
+            if (theme != null) {
+                AutocompleteIndex.putTheme(areaName, theme);
+            }
+            if (epic != null) {
+                AutocompleteIndex.putEpic(areaName, epic);
+            }
             AtmosphereHandler.push(areaName, getJsonStringExclChildren(Story.class, newStory, pushViews));
         } catch (Exception e) {
             e.printStackTrace();
@@ -607,9 +760,8 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/createepic/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Epic createEpic(@PathVariable String areaName, @RequestBody NewEpicContainer newEpic) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -646,40 +798,32 @@ public class JSONController {
             }
 
             //Move other epics
-            Query epicQuery = session.createQuery("from Epic where area like ? and archived=false order by prio desc");
-            epicQuery.setParameter(0, area);
-            List<Epic> epicList = Util.castList(Epic.class, epicQuery.list());
-
-            if (epicList.isEmpty()) {
-                newEpic.setPrio(1);
-            } else {
-                int newPrio = epicList.get(0).getPrio() + 1;
-                if (lastItem != null && lastItem.getType().equals("parent")) {
-                    for (Epic epic : epicList) {
-                        //Find what prio lastItem has
-                        if (epic.getId() == lastItem.getId()) {
-                            newPrio = epic.getPrio() + 1;
-
-                            //Move down all epics below the new epic
-                            for (Epic currentEpic : epicList) {
-                                int prio = currentEpic.getPrio();
-                                if (prio >= newPrio) {
-                                    currentEpic.setPrio(prio + 1);
-                                }
-                            }
-                            break;
-                        }
-                    }
+            int newPrio = Util.getNextPrio(BacklogType.EPIC, area, session);
+            if (lastItem != null && lastItem.getType().equals("parent")) {
+                Epic lastEpic = (Epic) session.get(Epic.class, lastItem.getId());
+                if (lastEpic != null && !lastEpic.isArchived()
+                        && lastEpic.getArea().getName().equals(areaName)) {
+                    newPrio = lastEpic.getPrio() + 1;
+
+                    //Move down all epics below the new epic
+                    RankAllocator.shiftRanks(BacklogType.EPIC, area, lastEpic.getPrio(), 1, session);
                 }
-                newEpic.setPrio(newPrio);
             }
+            newEpic.setPrio(newPrio);
 
             newEpic.setArea(area);
             newEpic.setTheme(theme);
             session.save("com.sonymobile.backlogtool.Epic", newEpic);
             newEpic.setTitle("New epic " + newEpic.getId());
+            if (theme != null) {
+                theme.getChildren().add(newEpic);
+            }
 
             tx.commit();
+            if (theme != null) {
+                AutocompleteIndex.putTheme(areaName, theme);
+            }
+            AutocompleteIndex.putEpic(areaName, newEpic);
             AtmosphereHandler.push(areaName, getJsonStringExclChildren(Epic.class, newEpic, EPIC_STORY_VIEW + "|" + THEME_EPIC_VIEW));
         } catch (Exception e) {
             e.printStackTrace();
@@ -695,9 +839,8 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/createtheme/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Theme createTheme(@PathVariable String areaName, @RequestBody NewThemeContainer newTheme) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -710,39 +853,25 @@ public class JSONController {
             ListItem lastItem = newTheme.getLastItem();
 
             //Move other themes
-            Query allThemesQuery = session.createQuery("from Theme where area like ? and archived=false order by prio desc");
-            allThemesQuery.setParameter(0, area);
-            List<Theme> themeList = Util.castList(Theme.class, allThemesQuery.list());
-
-            if (themeList.isEmpty()) {
-                newTheme.setPrio(1);
-            } else {
-                int newPrio = themeList.get(0).getPrio() + 1;
-                if (lastItem != null && lastItem.getType().equals("parent")) {
-                    for (Theme theme : themeList) {
-                        //Find what prio lastItem has
-                        if (theme.getId() == lastItem.getId()) {
-                            newPrio = theme.getPrio() + 1;
-
-                            //Move down all themes below the new theme
-                            for (Theme currentTheme : themeList) {
-                                int prio = currentTheme.getPrio();
-                                if (prio >= newPrio) {
-                                    currentTheme.setPrio(prio + 1);
-                                }
-                            }
-                            break;
-                        }
-                    }
+            int newPrio = Util.getNextPrio(BacklogType.THEME, area, session);
+            if (lastItem != null && lastItem.getType().equals("parent")) {
+                Theme lastTheme = (Theme) session.get(Theme.class, lastItem.getId());
+                if (lastTheme != null && !lastTheme.isArchived()
+                        && lastTheme.getArea().getName().equals(areaName)) {
+                    newPrio = lastTheme.getPrio() + 1;
+
+                    //Move down all themes below the new theme
+                    RankAllocator.shiftRanks(BacklogType.THEME, area, lastTheme.getPrio(), 1, session);
                 }
-                newTheme.setPrio(newPrio);
             }
+            newTheme.setPrio(newPrio);
 
             newTheme.setArea(area);
             session.save("com.sonymobile.backlogtool.Theme", newTheme);
             newTheme.setTitle("New theme " + newTheme.getId());
 
             tx.commit();
+            AutocompleteIndex.putTheme(areaName, newTheme);
             AtmosphereHandler.push(areaName, getJsonStringExclChildren(Theme.class, newTheme, THEME_EPIC_VIEW));
         } catch (Exception e) {
             e.printStackTrace();
@@ -758,10 +887,9 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/updatetask/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Task updateTask(@PathVariable String areaName,
             @RequestBody NewTaskContainer updatedTask) throws JsonGenerationException, JsonMappingException, IOException {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Task task = null;
         try {
@@ -771,6 +899,8 @@ public class JSONController {
             if (!task.getStory().getArea().getName().equals(areaName)) {
                 throw new Error("Trying to modify unauthorized object");
             }
+            DeltaTracker deltaTracker = new DeltaTracker();
+            deltaTracker.snapshot(Task.class, task);
 
             AttributeOption attr1 = null;
             try {
@@ -783,8 +913,11 @@ public class JSONController {
             task.setCalculatedTime(updatedTask.getCalculatedTime());
             task.setTaskAttr1(attr1);
 
+            String delta = deltaTracker.getDeltaMessage(Task.class, task, STORY_TASK_VIEW);
             tx.commit();
-            AtmosphereHandler.push(areaName, getJsonStringExclChildren(Task.class, task, STORY_TASK_VIEW));
+            if (delta != null) {
+                AtmosphereHandler.push(areaName, delta);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -798,10 +931,9 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/updatestory/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Story updateStory(@PathVariable String areaName,
            @RequestBody NewStoryContainer updatedStory) throws JsonGenerationException, JsonMappingException, IOException {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Story story = null;
 
@@ -813,6 +945,9 @@ public class JSONController {
             if (!story.getArea().getName().equals(areaName)) {
                 throw new Error("Trying to modify unauthorized object");
             }
+            DeltaTracker deltaTracker = new DeltaTracker();
+            deltaTracker.snapshot(Story.class, story);
+            Theme oldTheme = story.getTheme();
 
             boolean createIfDoesNotExist = true;
             Theme theme = getTheme(updatedStory.getThemeTitle(), story.getArea(), session, createIfDoesNotExist);
@@ -843,31 +978,15 @@ public class JSONController {
                 story.setDateArchived(new Date());
 
                 //Move up all stories under this one in rank
-                Query query = session.createQuery("from Story where prio > ? and area.name like ? and archived=false");
-                query.setParameter(0, story.getPrio());
-                query.setParameter(1, areaName);
-                List<Story> storyList = Util.castList(Story.class, query.list());
-
-                for (Story otherStory : storyList) {
-                    otherStory.setPrio(otherStory.getPrio() - 1);
-                }
+                RankAllocator.shiftRanks(BacklogType.STORY, story.getArea(), story.getPrio(), -1, session);
                 story.setPrio(-1);
             } else if (!updatedStory.isArchived() && story.isArchived()) {
                 archivedStatus = UPDATE_ITEM_UNARCHIVED;
                 //Was moved from archive
                 story.setDateArchived(null);
 
-                //Find the last story and place this one after
-                Query storyQuery = session.createQuery("from Story where area.name like ? and archived=false order by prio desc");
-                storyQuery.setParameter(0, areaName);
-                List<Story> storyList = Util.castList(Story.class, storyQuery.list());
-
-                if (storyList.isEmpty()) {
-                    story.setPrio(1);
-                } else {
-                    int lastPrio = storyList.get(0).getPrio();
-                    story.setPrio(lastPrio + 1);
-                }
+                //Place this one after the last story
+                story.setPrio(Util.getNextPrio(BacklogType.STORY, story.getArea(), session));
             }
 
             AttributeOption attr1 = null;
@@ -902,13 +1021,15 @@ public class JSONController {
 
             story.setTheme(theme);
             story.setEpic(newEpic);
+            boolean themeChanged = theme != oldTheme;
             if (theme != null && newEpic != null) {
-                theme.getChildren().add(newEpic);
+                themeChanged |= theme.getChildren().add(newEpic);
                 newEpic.setTheme(theme);
             } 
 
             List<String> messages = new ArrayList<String>();
-            if (theme != null) {
+            //The theme only has to be pushed if its epics were changed
+            if (theme != null && themeChanged) {
                 messages.add(getJsonStringInclChildren(Theme.class.getSimpleName(), theme, THEME_EPIC_VIEW));
             }
             if (!parentsToPush.isEmpty()) {
@@ -928,9 +1049,23 @@ public class JSONController {
             } else {
                 updatedStoryViews.append(STORY_TASK_VIEW);
             }
-            messages.add(getJsonStringExclChildren(Story.class, story, updatedStoryViews.toString()));
+            if (archivedStatus == 0 && parentsToPush.isEmpty()) {
+                //Only the changed fields are needed when the story stays in place
+                String delta = deltaTracker.getDeltaMessage(Story.class, story, updatedStoryViews.toString());
+                if (delta != null) {
+                    messages.add(delta);
+                }
+            } else {
+                messages.add(getJsonStringExclChildren(Story.class, story, updatedStoryViews.toString()));
+            }
 
             tx.commit();
+            if (theme != null) {
+                AutocompleteIndex.putTheme(areaName, theme);
+            }
+            if (newEpic != null) {
+                AutocompleteIndex.putEpic(areaName, newEpic);
+            }
             AtmosphereHandler.pushJsonMessages(areaName, messages);
         } catch (Exception e) {
             e.printStackTrace();
@@ -946,11 +1081,10 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/updateepic/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody String updateEpic(@PathVariable String areaName,
             @RequestBody NewEpicContainer updatedEpic) throws Exception {
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Epic epic = null;
         try {
@@ -961,6 +1095,11 @@ public class JSONController {
             if (!epic.getArea().getName().equals(areaName)) {
                 throw new Error("Trying to modify unauthorized object");
             }
+            DeltaTracker deltaTracker = new DeltaTracker();
+            deltaTracker.snapshot(Epic.class, epic);
+            for (Story s : epic.getChildren()) {
+                deltaTracker.snapshot(Story.class, s);
+            }
 
             Area area = (Area) session.get(Area.class, areaName);
             if (area == null) {
@@ -988,12 +1127,10 @@ public class JSONController {
                         epic.setPrioInTheme(Integer.MAX_VALUE);
                         theme.rebuildChildrenOrder();
                         affectedThemes.add(theme);
-
-                        epic.setTheme(theme);
-                        for (Story story : epic.getChildren()) {
-                            story.setTheme(theme);
-                        }
-                        epic.setTheme(theme);
+                    }
+                    epic.setTheme(theme);
+                    for (Story story : epic.getChildren()) {
+                        story.setTheme(theme);
                     }
                 }
                 int archivedStatus = 0;
@@ -1003,31 +1140,15 @@ public class JSONController {
                     epic.setDateArchived(new Date());
 
                     //Move up all epics under this one in rank
-                    Query query = session.createQuery("from Epic where prio > ? and area like ? and archived=false");
-                    query.setParameter(0, epic.getPrio());
-                    query.setParameter(1, area);
-                    List<Epic> epicList = Util.castList(Epic.class, query.list());
-
-                    for (Epic otherEpic : epicList) {
-                        otherEpic.setPrio(otherEpic.getPrio() - 1);
-                    }
+                    RankAllocator.shiftRanks(BacklogType.EPIC, area, epic.getPrio(), -1, session);
                     epic.setPrio(-1);
                 } else if (!updatedEpic.isArchived() && epic.isArchived()) {
                     archivedStatus = UPDATE_ITEM_UNARCHIVED;
                     //Was moved from archive
                     epic.setDateArchived(null);
 
-                    //Find the last epic and place this one after
-                    Query epicQuery = session.createQuery("from Epic where area like ? and archived=false order by prio desc");
-                    epicQuery.setParameter(0, area);
-                    List<Epic> epicList = Util.castList(Epic.class, epicQuery.list());
-
-                    if (epicList.isEmpty()) {
-                        epic.setPrio(1);
-                    } else {
-                        int lastPrio = epicList.get(0).getPrio();
-                        epic.setPrio(lastPrio + 1);
-                    }
+                    //Place this one after the last epic
+                    epic.setPrio(Util.getNextPrio(BacklogType.EPIC, area, session));
                 }
                 epic.setTitle(updatedEpic.getTitle());
                 epic.setDescription(updatedEpic.getDescription());
@@ -1035,7 +1156,10 @@ public class JSONController {
 
                 List<String> messages = new ArrayList<String>();
                 for (Story s : epic.getChildren()) {
-                    messages.add(getJsonStringExclChildren(Story.class, s, STORY_TASK_VIEW));
+                    String delta = deltaTracker.getDeltaMessage(Story.class, s, STORY_TASK_VIEW);
+                    if (delta != null) {
+                        messages.add(delta);
+                    }
                 }
                 String updatedEpicViews = THEME_EPIC_VIEW;
                 if (archivedStatus == UPDATE_ITEM_ARCHIVED) {
@@ -1045,7 +1169,15 @@ public class JSONController {
                 } else {
                     updatedEpicViews += "|" + EPIC_STORY_VIEW;
                 }
-                messages.add(getJsonStringExclChildren(Epic.class, epic, updatedEpicViews));
+                if (archivedStatus == 0 && affectedThemes.isEmpty()) {
+                    //Only the changed fields are needed when the epic stays in place
+                    String delta = deltaTracker.getDeltaMessage(Epic.class, epic, updatedEpicViews);
+                    if (delta != null) {
+                        messages.add(delta);
+                    }
+                } else {
+                    messages.add(getJsonStringExclChildren(Epic.class, epic, updatedEpicViews));
+                }
 
                 if (!affectedThemes.isEmpty()) {
                     HashMap<String, Object> moveActionMap = new HashMap<String, Object>();
@@ -1055,6 +1187,10 @@ public class JSONController {
                 }
 
                 tx.commit();
+                if (theme != null) {
+                    AutocompleteIndex.putTheme(areaName, theme);
+                }
+                AutocompleteIndex.putEpic(areaName, epic);
                 AtmosphereHandler.pushJsonMessages(areaName, messages);
             }
         } catch (Exception e) {
@@ -1065,18 +1201,15 @@ public class JSONController {
         } finally {
             session.close();
         }
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.getSerializationConfig().addMixInAnnotations(Story.class, ChildrenExcluder.class);
-        return mapper.writeValueAsString(epic);
+        return JsonMappers.withoutChildren(Story.class).writeValueAsString(epic);
     }
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/updatetheme/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody String updateTheme(@PathVariable String areaName,
             @RequestBody Theme updatedTheme) throws Exception {
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Theme theme = null;
         try {
@@ -1087,6 +1220,14 @@ public class JSONController {
             if (!theme.getArea().getName().equals(areaName)) {
                 throw new Error("Trying to modify unauthorized object");
             }
+            DeltaTracker deltaTracker = new DeltaTracker();
+            deltaTracker.snapshot(Theme.class, theme);
+            for (Epic e : theme.getChildren()) {
+                deltaTracker.snapshot(Epic.class, e);
+                for (Story s : e.getChildren()) {
+                    deltaTracker.snapshot(Story.class, s);
+                }
+            }
 
             Area area = (Area) session.get(Area.class, areaName);
             if (area == null) {
@@ -1102,31 +1243,15 @@ public class JSONController {
                     theme.setDateArchived(new Date());
 
                     //Move up all themes under this one in rank
-                    Query query = session.createQuery("from Theme where prio > ? and area like ? and archived=false");
-                    query.setParameter(0, theme.getPrio());
-                    query.setParameter(1, area);
-                    List<Theme> themeList = Util.castList(Theme.class, query.list());
-
-                    for (Theme otherTheme : themeList) {
-                        otherTheme.setPrio(otherTheme.getPrio() - 1);
-                    }
+                    RankAllocator.shiftRanks(BacklogType.THEME, area, theme.getPrio(), -1, session);
                     theme.setPrio(-1);
                 } else if (!updatedTheme.isArchived() && theme.isArchived()) {
                     archivedStatus = UPDATE_ITEM_UNARCHIVED;
                     //Was moved from archive
                     theme.setDateArchived(null);
 
-                    //Find the last theme and place this one after
-                    Query themeQuery = session.createQuery("from Theme where area like ? and archived=false order by prio desc");
-                    themeQuery.setParameter(0, area);
-                    List<Theme> themeList = Util.castList(Theme.class, themeQuery.list());
-
-                    if (themeList.isEmpty()) {
-                        theme.setPrio(1);
-                    } else {
-                        int lastPrio = themeList.get(0).getPrio();
-                        theme.setPrio(lastPrio + 1);
-                    }
+                    //Place this one after the last theme
+                    theme.setPrio(Util.getNextPrio(BacklogType.THEME, area, session));
                 }
                 theme.setTitle(updatedTheme.getTitle());
                 theme.setDescription(updatedTheme.getDescription());
@@ -1134,10 +1259,16 @@ public class JSONController {
 
                 List<String> messages = new ArrayList<String>();
                 for (Epic e : theme.getChildren()) {
-                    messages.add(getJsonStringExclChildren(Epic.class, e, EPIC_STORY_VIEW));
+                    String epicDelta = deltaTracker.getDeltaMessage(Epic.class, e, EPIC_STORY_VIEW);
+                    if (epicDelta != null) {
+                        messages.add(epicDelta);
+                    }
 
                     for (Story s : e.getChildren()) {
-                        messages.add(getJsonStringExclChildren(Story.class, s, STORY_TASK_VIEW));
+                        String storyDelta = deltaTracker.getDeltaMessage(Story.class, s, STORY_TASK_VIEW);
+                        if (storyDelta != null) {
+                            messages.add(storyDelta);
+                        }
                     }
                 }
 
@@ -1146,9 +1277,13 @@ public class JSONController {
                 } else if (archivedStatus == UPDATE_ITEM_UNARCHIVED) {
                     messages.add(getJsonStringInclChildren(Theme.class.getSimpleName(), theme, THEME_EPIC_VIEW));
                 } else {
-                    messages.add(getJsonStringExclChildren(Theme.class, theme, THEME_EPIC_VIEW));
+                    String delta = deltaTracker.getDeltaMessage(Theme.class, theme, THEME_EPIC_VIEW);
+                    if (delta != null) {
+                        messages.add(delta);
+                    }
                 }
                 tx.commit();
+                AutocompleteIndex.putTheme(areaName, theme);
 
                 AtmosphereHandler.pushJsonMessages(areaName, messages);
             }
@@ -1160,9 +1295,17 @@ public class JSONController {
         } finally {
             session.close();
         }
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.getSerializationConfig().addMixInAnnotations(Epic.class, ChildrenExcluder.class);
-        return mapper.writeValueAsString(theme);
+        return JsonMappers.withoutChildren(Epic.class).writeValueAsString(theme);
+    }
+
+    /**
+     * Returns what a title is compared with when looking up themes and epics
+     * by title, i.e. the title as it would be stored by setTitle in lower case.
+     * @param title title sent by the client, possibly HTML escaped
+     * @return the lower case title
+     */
+    private static String getTitleKey(String title) {
+        return StringEscapeUtils.unescapeHtml(title).trim().toLowerCase();
     }
 
     /**
@@ -1176,16 +1319,11 @@ public class JSONController {
     private Theme getTheme(String themeTitle, Area area, Session session, boolean autoCreate) {
         Theme theme = null;
         if (themeTitle != null && !themeTitle.isEmpty()) {
-            Query themeQuery = session.createQuery("from Theme where area like ?");
+            Query themeQuery = session.createQuery("from Theme where area = ? and lower(title) = ? order by id");
             themeQuery.setParameter(0, area);
-            List<Theme> themes = Util.castList(Theme.class, themeQuery.list());
-
-            for (Theme dbTheme : themes) {
-                if (dbTheme.getTitle().toLowerCase().equals(themeTitle.toLowerCase())) {
-                    theme = dbTheme;
-                    break;
-                }
-            }
+            themeQuery.setParameter(1, getTitleKey(themeTitle));
+            themeQuery.setMaxResults(1);
+            theme = (Theme) themeQuery.uniqueResult();
 
             if (theme == null && autoCreate) {
                 //New theme was specified
@@ -1194,16 +1332,7 @@ public class JSONController {
                 theme.setArea(area);
 
                 //Set prio for theme
-                Query themeQuery2 = session.createQuery("from Theme where area like ? and archived=false order by prio desc");
-                themeQuery2.setParameter(0, area);
-                List<Theme> themeList = Util.castList(Theme.class, themeQuery2.list());
-
-                if (themeList.isEmpty()) {
-                    theme.setPrio(1);
-                } else {
-                    int lastPrio = themeList.get(0).getPrio();
-                    theme.setPrio(lastPrio + 1);
-                }
+                theme.setPrio(Util.getNextPrio(BacklogType.THEME, area, session));
 
                 session.save(theme);
             }
@@ -1225,22 +1354,17 @@ public class JSONController {
         if (epicTitle != null && !epicTitle.isEmpty()) {
             Query epicQuery = null;
             if (theme == null) {
-                epicQuery = session.createQuery("from Epic where area like ? " +
-                        "and theme is null");
+                epicQuery = session.createQuery("from Epic where area = ? and lower(title) = ? " +
+                        "and theme is null order by id");
             } else {
-                epicQuery = session.createQuery("from Epic where area like ? " +
-                        "and theme = ?");
-                epicQuery.setParameter(1, theme);
+                epicQuery = session.createQuery("from Epic where area = ? and lower(title) = ? " +
+                        "and theme = ? order by id");
+                epicQuery.setParameter(2, theme);
             }
             epicQuery.setParameter(0, area);
-
-            List<Epic> epics = Util.castList(Epic.class, epicQuery.list());
-            for (Epic dbEpic : epics) {
-                if (dbEpic.getTitle().toLowerCase().equals(epicTitle.toLowerCase())) {
-                    epic = dbEpic;
-                    break;
-                }
-            }
+            epicQuery.setParameter(1, getTitleKey(epicTitle));
+            epicQuery.setMaxResults(1);
+            epic = (Epic) epicQuery.uniqueResult();
 
             if (epic == null && autoCreate) {
                 //New epic was specified
@@ -1249,16 +1373,7 @@ public class JSONController {
                 epic.setArea(area);
 
                 //Set prio for epic
-                Query epicQuery2 = session.createQuery("from Epic where area like ? and archived=false order by prio desc");
-                epicQuery2.setParameter(0, area);
-                List<Epic> epicList = Util.castList(Epic.class, epicQuery2.list());
-
-                if (epicList.isEmpty()) {
-                    epic.setPrio(1);
-                } else {
-                    int lastPrio = epicList.get(0).getPrio();
-                    epic.setPrio(lastPrio + 1);
-                }
+                epic.setPrio(Util.getNextPrio(BacklogType.EPIC, area, session));
 
                 session.save(epic);
             }
@@ -1268,10 +1383,9 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/cloneStory/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Story cloneStory(@PathVariable String areaName, @RequestParam int id, @RequestParam boolean withChildren) throws Exception {
         int clonedId = -1;
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Story clone = null;
         NewStoryContainer storyToPush = null;
@@ -1297,17 +1411,13 @@ public class JSONController {
             }
 
             //Move down all stories under this story
-            Query query = session.createQuery("from Story where prio > ? and area.name like ? and archived=false");
-            query.setParameter(0, storyToClone.getPrio());
-            query.setParameter(1, areaName);
-            List<Story> storyList = Util.castList(Story.class, query.list());
-
-            for (Story story : storyList) {
-                story.setPrio(story.getPrio() + 1);
-            }
+            RankAllocator.shiftRanks(BacklogType.STORY, storyToClone.getArea(), storyToClone.getPrio(), 1, session);
 
             clonedId = (Integer) session.save(clone);
             clone.setTitle("Clone " + clonedId + " " + clone.getTitle());
+            if (parentEpic != null) {
+                parentEpic.getChildren().add(clone);
+            }
 
             Set<Task> clonedChildren = clone.getChildren();
             for (Task task : clonedChildren) {
@@ -1339,10 +1449,9 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/cloneEpic/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Epic cloneEpic(@PathVariable String areaName, @RequestParam int id, @RequestParam boolean withChildren) throws Exception {
         int clonedId = -1;
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Epic clone = null;
         NewEpicContainer epicToPush = null;
@@ -1369,17 +1478,13 @@ public class JSONController {
             }
 
             //Move down all epics under this epic
-            Query query = session.createQuery("from Epic where prio > ? and area.name like ? and archived=false");
-            query.setParameter(0, epicToClone.getPrio());
-            query.setParameter(1, areaName);
-            List<Epic> epicList = Util.castList(Epic.class, query.list());
-
-            for (Epic epic : epicList) {
-                epic.setPrio(epic.getPrio() + 1);
-            }
+            RankAllocator.shiftRanks(BacklogType.EPIC, epicToClone.getArea(), epicToClone.getPrio(), 1, session);
 
             clonedId = (Integer) session.save(clone);
             clone.setTitle("Clone " + clonedId + " " + clone.getTitle());
+            if (parentTheme != null) {
+                parentTheme.getChildren().add(clone);
+            }
 
             Set<Story> clonedChildren = clone.getChildren();
             for (Story story : clonedChildren) {
@@ -1397,6 +1502,7 @@ public class JSONController {
             messages.add(getJsonStringExclChildren(Epic.class, epicToPush, THEME_EPIC_VIEW));
             messages.add(getJsonStringInclChildren(Epic.class.getSimpleName(), epicToPush, EPIC_STORY_VIEW));
             tx.commit();
+            AutocompleteIndex.putEpic(areaName, clone);
 
             AtmosphereHandler.pushJsonMessages(areaName, messages);
         } catch (Exception e) {
@@ -1413,10 +1519,9 @@ public class JSONController {
 
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/cloneTheme/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Theme cloneTheme(@PathVariable String areaName, @RequestParam int id, @RequestParam boolean withChildren) throws Exception {
         int clonedId = -1;
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Theme clone = null;
         NewThemeContainer themeToPush = null;
@@ -1432,14 +1537,7 @@ public class JSONController {
             clone.setPrio(themeToClone.getPrio() + 1);
 
             //Move down all themes under this theme
-            Query query = session.createQuery("from Theme where prio > ? and area.name like ? and archived=false");
-            query.setParameter(0, themeToClone.getPrio());
-            query.setParameter(1, areaName);
-            List<Theme> themeList = Util.castList(Theme.class, query.list());
-
-            for (Theme theme : themeList) {
-                theme.setPrio(theme.getPrio() + 1);
-            }
+            RankAllocator.shiftRanks(BacklogType.THEME, themeToClone.getArea(), themeToClone.getPrio(), 1, session);
 
             clonedId = (Integer) session.save(clone);
             clone.setTitle("Clone " + clonedId + " " + clone.getTitle());
@@ -1456,6 +1554,10 @@ public class JSONController {
             themeToPush.setLastItem(lastItem);
 
             tx.commit();
+            AutocompleteIndex.putTheme(areaName, clone);
+            for (Epic epic : clonedChildren) {
+                AutocompleteIndex.putEpic(areaName, epic);
+            }
             AtmosphereHandler.push(areaName, getJsonStringInclChildren(Theme.class.getSimpleName(), themeToPush, THEME_EPIC_VIEW));
         } catch (Exception e) {
             e.printStackTrace();
@@ -1480,9 +1582,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/deletestory/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean deleteStory(@PathVariable String areaName, @RequestBody int storyId) throws JsonGenerationException, JsonMappingException, IOException {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1495,14 +1596,7 @@ public class JSONController {
             Set<Task> tasksInStory = storyToRemove.getChildren();
 
             //Move up all stories under this story
-            Query query = session.createQuery("from Story where prio > ? and area.name like ? and archived=false");
-            query.setParameter(0, storyToRemove.getPrio());
-            query.setParameter(1, areaName);
-            List<Story> storyList = Util.castList(Story.class, query.list());
-
-            for (Story story : storyList) {
-                story.setPrio(story.getPrio() - 1);
-            }
+            RankAllocator.shiftRanks(BacklogType.STORY, storyToRemove.getArea(), storyToRemove.getPrio(), -1, session);
 
             for (Task taskToRemove : tasksInStory) {
                 session.delete(taskToRemove);
@@ -1534,9 +1628,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/deleteepic/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean deleteEpic(@PathVariable String areaName, @RequestBody int epicId) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1546,22 +1639,20 @@ public class JSONController {
             }
 
             //Move up all epics under this epic
-            Query query = session.createQuery("from Epic where prio > ? and area.name like ? and archived=false");
-            query.setParameter(0, epicToRemove.getPrio());
-            query.setParameter(1, areaName);
-            List<Epic> epicList = Util.castList(Epic.class, query.list());
-            for (Epic epic : epicList) {
-                epic.setPrio(epic.getPrio() - 1);
-            }
+            RankAllocator.shiftRanks(BacklogType.EPIC, epicToRemove.getArea(), epicToRemove.getPrio(), -1, session);
 
             Set<Story> storiesInEpic = epicToRemove.getChildren();
 
             for (Story storyToEdit : storiesInEpic) {
                 storyToEdit.setEpic(null);
             }
+            if (epicToRemove.getTheme() != null) {
+                epicToRemove.getTheme().getChildren().remove(epicToRemove);
+            }
             session.delete(epicToRemove);
 
             tx.commit();
+            AutocompleteIndex.removeEpic(areaName, epicId);
             AtmosphereHandler.push(areaName, getJsonStringInclChildren(PUSH_ACTION_DELETE, epicId, ALL_VIEWS));
         } catch (Exception e) {
             e.printStackTrace();
@@ -1582,9 +1673,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/deletetheme/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean deleteTheme(@PathVariable String areaName, @RequestBody int themeId) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1595,16 +1685,9 @@ public class JSONController {
             }
 
             //Move up all themes under this theme
-            Query query1 = session.createQuery("from Theme where prio > ? and area.name like ?");
-            query1.setParameter(0, themeToRemove.getPrio());
-            query1.setParameter(1, areaName);
-            List<Theme> themeList = Util.castList(Theme.class, query1.list());
+            RankAllocator.shiftRanks(BacklogType.THEME, themeToRemove.getArea(), themeToRemove.getPrio(), -1, session);
 
-            for (Theme theme : themeList) {
-                theme.setPrio(theme.getPrio() - 1);
-            }
-
-            Query query2 = session.createQuery("from Story where area.name like ? and theme = ?");
+            Query query2 = session.createQuery("from Story where area.name = ? and theme = ?");
             query2.setParameter(0, areaName);
             query2.setParameter(1, themeToRemove);
             List<Story> storyList = Util.castList(Story.class, query2.list());
@@ -1623,6 +1706,7 @@ public class JSONController {
             session.delete(themeToRemove);
 
             tx.commit();
+            AutocompleteIndex.removeTheme(areaName, themeId);
             AtmosphereHandler.push(areaName, getJsonStringInclChildren(PUSH_ACTION_DELETE, themeId, ALL_VIEWS));
         } catch (Exception e) {
             e.printStackTrace();
@@ -1643,9 +1727,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/deletetask/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean deleteTask(@PathVariable String areaName, @RequestBody int taskId) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1691,14 +1774,13 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/moveToArea/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean moveToArea(@PathVariable String areaName,
             @RequestBody int[] storyIds, @RequestParam String newAreaName) {
 
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String username = auth.getName();
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1714,42 +1796,77 @@ public class JSONController {
                     || (user != null && user.isMasterAdmin())) {
                 List<Story> storiesToMove = new ArrayList<Story>(); 
 
-                //Get all the stories to move
-                for (int id : storyIds) {
-                    Query storyQuery = session.createQuery("from Story where area like ? and id=?");
-                    storyQuery.setParameter(0, oldArea);
-                    storyQuery.setParameter(1, id);
-                    Story story = (Story) storyQuery.uniqueResult();
-                    storiesToMove.add(story);
+                //Get all the stories to move, with their tasks, in rank order
+                if (storyIds.length > 0) {
+                    List<Integer> ids = new ArrayList<Integer>();
+                    for (int id : storyIds) {
+                        ids.add(id);
+                    }
+                    Query storyQuery = session.createQuery("select distinct s from Story s " +
+                            "left join fetch s.children " +
+                            "where s.area = :area and s.id in (:ids) " +
+                            "order by s.prio");
+                    storyQuery.setEntity("area", oldArea);
+                    storyQuery.setParameterList("ids", ids);
+                    storiesToMove = Util.castList(Story.class, storyQuery.list());
+                }
+
+                //Look up attribute options, themes and epics of the new area by name
+                Map<String, AttributeOption> storyAttr1Options = getOptionsByName(newArea.getStoryAttr1());
+                Map<String, AttributeOption> storyAttr2Options = getOptionsByName(newArea.getStoryAttr2());
+                Map<String, AttributeOption> storyAttr3Options = getOptionsByName(newArea.getStoryAttr3());
+                Map<String, AttributeOption> taskAttr1Options = getOptionsByName(newArea.getTaskAttr1());
+
+                Query themeQuery = session.createQuery("from Theme where area = ?");
+                themeQuery.setParameter(0, newArea);
+                Map<String, Theme> themesByTitle = new HashMap<String, Theme>();
+                for (Theme theme : Util.castList(Theme.class, themeQuery.list())) {
+                    if (!themesByTitle.containsKey(theme.getTitle())) {
+                        themesByTitle.put(theme.getTitle(), theme);
+                    }
                 }
 
-                Collections.sort(storiesToMove, new Comparator<Story>() {
-                    @Override
-                    public int compare(Story o1, Story o2) {
-                        return o1.getPrio() - o2.getPrio();
+                Query epicQuery = session.createQuery("from Epic where area = ?");
+                epicQuery.setParameter(0, newArea);
+                Map<String, Epic> epicsByTitle = new HashMap<String, Epic>();
+                Map<Theme, Map<String, Epic>> epicsByTheme = new HashMap<Theme, Map<String, Epic>>();
+                for (Epic epic : Util.castList(Epic.class, epicQuery.list())) {
+                    if (!epicsByTitle.containsKey(epic.getTitle())) {
+                        epicsByTitle.put(epic.getTitle(), epic);
                     }
-                });
+                    if (epic.getTheme() != null) {
+                        Map<String, Epic> themeEpics = epicsByTheme.get(epic.getTheme());
+                        if (themeEpics == null) {
+                            themeEpics = new HashMap<String, Epic>();
+                            epicsByTheme.put(epic.getTheme(), themeEpics);
+                        }
+                        if (!themeEpics.containsKey(epic.getTitle())) {
+                            themeEpics.put(epic.getTitle(), epic);
+                        }
+                    }
+                }
 
+                RankAllocator rankAllocator = new RankAllocator(session);
                 for (Story story : storiesToMove) {
                     //Set new rank
                     int newPrio = -1;
                     if (!story.isArchived()) {
-                        newPrio = Util.getNextPrio(BacklogType.STORY, newArea, session);
+                        newPrio = rankAllocator.next(BacklogType.STORY, newArea);
                     }
                     story.setPrio(newPrio);
                     story.setArea(newArea);
 
                     //Change all story attribute options
-                    AttributeOption newOpt1 = getAttrAfterMove(story.getStoryAttr1(), newArea.getStoryAttr1().getOptions(), session);
-                    AttributeOption newOpt2 = getAttrAfterMove(story.getStoryAttr2(), newArea.getStoryAttr2().getOptions(), session);
-                    AttributeOption newOpt3 = getAttrAfterMove(story.getStoryAttr3(), newArea.getStoryAttr3().getOptions(), session);
+                    AttributeOption newOpt1 = getAttrAfterMove(story.getStoryAttr1(), newArea.getStoryAttr1(), storyAttr1Options, session);
+                    AttributeOption newOpt2 = getAttrAfterMove(story.getStoryAttr2(), newArea.getStoryAttr2(), storyAttr2Options, session);
+                    AttributeOption newOpt3 = getAttrAfterMove(story.getStoryAttr3(), newArea.getStoryAttr3(), storyAttr3Options, session);
                     story.setStoryAttr1(newOpt1);
                     story.setStoryAttr2(newOpt2);
                     story.setStoryAttr3(newOpt3);
 
                     //Change all task attribute options
                     for (Task task : story.getChildren()) {
-                        AttributeOption taskOpt1 = getAttrAfterMove(task.getTaskAttr1(), newArea.getTaskAttr1().getOptions(), session);
+                        AttributeOption taskOpt1 = getAttrAfterMove(task.getTaskAttr1(), newArea.getTaskAttr1(), taskAttr1Options, session);
                         task.setTaskAttr1(taskOpt1);
                     }
 
@@ -1757,25 +1874,22 @@ public class JSONController {
                     if (story.getEpic() != null && story.getTheme() != null) {
                         //Both theme and epic exists.
                         //Firstly, look for a matching theme
-                        Theme newTheme = getThemeAfterMove(story, newArea, session);
+                        Theme newTheme = getThemeAfterMove(story, newArea, themesByTitle, rankAllocator, session);
                         story.setTheme(newTheme);
 
                         //Look for a matching epic
-                        Epic newEpic = null;
-                        boolean foundMatch = false;
-                        for (Epic epic : newTheme.getChildren()) {
-                            if (epic.getTitle().equals(story.getEpic().getTitle())) {
-                                newEpic = epic;
-                                foundMatch = true;
-                                break;
-                            } 
+                        Map<String, Epic> themeEpics = epicsByTheme.get(newTheme);
+                        if (themeEpics == null) {
+                            themeEpics = new HashMap<String, Epic>();
+                            epicsByTheme.put(newTheme, themeEpics);
                         }
-                        if (!foundMatch) {
+                        Epic newEpic = themeEpics.get(story.getEpic().getTitle());
+                        if (newEpic == null) {
                             //Create new epic in the theme.
                             newEpic = story.getEpic().copy(false);
                             int prio = -1;
                             if (!newEpic.isArchived()) {
-                                prio = Util.getNextPrio(BacklogType.EPIC, newArea, session);                                
+                                prio = rankAllocator.next(BacklogType.EPIC, newArea);
                             }
                             newEpic.setPrio(prio);
 
@@ -1787,6 +1901,10 @@ public class JSONController {
 
                             session.save(newEpic);
                             newTheme.getChildren().add(newEpic);
+                            themeEpics.put(newEpic.getTitle(), newEpic);
+                            if (!epicsByTitle.containsKey(newEpic.getTitle())) {
+                                epicsByTitle.put(newEpic.getTitle(), newEpic);
+                            }
                         }
                         story.getEpic().getChildren().remove(story);
                         story.setEpic(newEpic);
@@ -1794,13 +1912,10 @@ public class JSONController {
                         newEpic.setTheme(newTheme);
 
                     } else if (story.getTheme() != null) {
-                        Theme newTheme = getThemeAfterMove(story, newArea, session);
+                        Theme newTheme = getThemeAfterMove(story, newArea, themesByTitle, rankAllocator, session);
                         story.setTheme(newTheme);
                     } else if (story.getEpic() != null) {
-                        Query epicQuery1 = session.createQuery("from Epic where area like ? and title like ?");
-                        epicQuery1.setParameter(0, newArea);
-                        epicQuery1.setParameter(1, story.getEpic().getTitle());
-                        Epic newEpic = (Epic) epicQuery1.uniqueResult();
+                        Epic newEpic = epicsByTitle.get(story.getEpic().getTitle());
                         if (newEpic == null) {
                             //Create new epic
                             newEpic = story.getEpic().copy(false);
@@ -1808,11 +1923,12 @@ public class JSONController {
                             //Set correct prio
                             int prio = -1;
                             if (!newEpic.isArchived()) {
-                                prio = Util.getNextPrio(BacklogType.EPIC, newArea, session);                                
+                                prio = rankAllocator.next(BacklogType.EPIC, newArea);
                             }
                             newEpic.setPrio(prio);
                             newEpic.setArea(newArea);
                             session.save(newEpic);
+                            epicsByTitle.put(newEpic.getTitle(), newEpic);
                         }
                         //Set correct prioInEpic
                         int prioInEpic = newEpic.getChildren().size() + 1;
@@ -1828,7 +1944,6 @@ public class JSONController {
                     pushMsgsNewArea.add(getJsonStringExclChildren(Story.class, story, STORY_TASK_VIEW));
                     pushMsgsOldArea.add(getJsonStringInclChildren(PUSH_ACTION_DELETE, story.getId(), STORY_TASK_VIEW + "|" + EPIC_STORY_VIEW));
                 }
-                Util.rebuildRanks(BacklogType.STORY, oldArea, session);
 
                 //Push out all affected themes and epics
                 Set<Epic> updatedEpics = new HashSet<Epic>();
@@ -1844,9 +1959,12 @@ public class JSONController {
                     }
                 }
             }
+            tx.commit();
+            AutocompleteIndex.invalidate(newAreaName);
+            //Missing attribute options may have been created in the new area
+            AreaMetadataCache.invalidate(newAreaName);
             AtmosphereHandler.pushJsonMessages(areaName, pushMsgsOldArea);
             AtmosphereHandler.pushJsonMessages(newAreaName, pushMsgsNewArea);
-            tx.commit();
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -1858,28 +1976,44 @@ public class JSONController {
         return true;
     }
 
+    /**
+     * Helper for moveToArea. Maps the option names of an attribute to the options.
+     * @param attribute the attribute
+     * @return the options by name, the first one if several have the same name
+     */
+    private static Map<String, AttributeOption> getOptionsByName(Attribute attribute) {
+        Map<String, AttributeOption> options = new HashMap<String, AttributeOption>();
+        for (AttributeOption option : attribute.getOptions()) {
+            if (!options.containsKey(option.getName())) {
+                options.put(option.getName(), option);
+            }
+        }
+        return options;
+    }
+
     /**
      * Helper for moveToArea. Finds a matching attribute after moving a story to a new area.
      * Creates a new attribute if no match was found.
      * @param currentOption the selected option in the old area
-     * @param targetOptions the available options in the new area
+     * @param targetAttribute the attribute in the new area
+     * @param targetOptions the options of targetAttribute by name, see {@link #getOptionsByName(Attribute)}
      * @param session hibernate session
      * @return matched attribute (or new attribute if no match)
      */
-    private AttributeOption getAttrAfterMove(AttributeOption currentOption,
-            Set<AttributeOption> targetOptions, Session session) {
+    private AttributeOption getAttrAfterMove(AttributeOption currentOption, Attribute targetAttribute,
+            Map<String, AttributeOption> targetOptions, Session session) {
         if (currentOption != null) {
-            for (AttributeOption newOption : targetOptions) {
-                if (newOption.getName().equals(currentOption.getName())) {
-                    return newOption;
-                }
+            AttributeOption matchingOption = targetOptions.get(currentOption.getName());
+            if (matchingOption != null) {
+                return matchingOption;
             }
             //No matching attribute found; copy the attribute.
             AttributeOption newOption = currentOption.copy();
-            Set<AttributeOption> attributeOptions = targetOptions;
+            Set<AttributeOption> attributeOptions = targetAttribute.getOptions();
             newOption.setCompareValue(attributeOptions.size() + 1);
             session.save(newOption);
             attributeOptions.add(newOption);
+            targetOptions.put(newOption.getName(), newOption);
             return newOption;
         }
         return null;
@@ -1888,16 +2022,16 @@ public class JSONController {
     /**
      * Helper for moveToArea. Finds a matching theme after moving a story to a new area.
      * Creates a new theme if no match was found.
-     * @param storyToMove the story thatäs being moved
+     * @param storyToMove the story that's being moved
      * @param newArea target area
+     * @param themesByTitle the themes of the target area by title
+     * @param rankAllocator allocator used for ranks in the target area
      * @param session hibernate session
-     * @return matched theme (or new attribute if no match)
+     * @return matched theme (or new theme if no match)
      */
-    private Theme getThemeAfterMove(Story storyToMove, Area newArea, Session session) {
-        Query themeQuery = session.createQuery("from Theme where area like ? and title like ?");
-        themeQuery.setParameter(0, newArea);
-        themeQuery.setParameter(1, storyToMove.getTheme().getTitle());
-        Theme newTheme = (Theme) themeQuery.uniqueResult();
+    private Theme getThemeAfterMove(Story storyToMove, Area newArea, Map<String, Theme> themesByTitle,
+            RankAllocator rankAllocator, Session session) {
+        Theme newTheme = themesByTitle.get(storyToMove.getTheme().getTitle());
         if (newTheme == null) {
             //Create new theme
             newTheme = storyToMove.getTheme().copy(false);
@@ -1905,12 +2039,13 @@ public class JSONController {
             //Set prio for theme
             int prio = -1;
             if (!newTheme.isArchived()) {
-                prio = Util.getNextPrio(BacklogType.THEME, newArea, session);
+                prio = rankAllocator.next(BacklogType.THEME, newArea);
             }
             newTheme.setPrio(prio);
 
             newTheme.setArea(newArea);
             session.save(newTheme);
+            themesByTitle.put(newTheme.getTitle(), newTheme);
         }
         return newTheme;
     } 
@@ -1920,7 +2055,6 @@ public class JSONController {
      * @return new area name if everything was ok
      */
     @RequestMapping(value="/createArea", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody String createArea(@RequestBody String areaName) {
         //Removing all invalid characters:
         areaName = areaName.replaceAll("\\<.*?>","").replaceAll("[\"/\\\\.?;#%\u20AC]", "");        
@@ -1929,7 +2063,7 @@ public class JSONController {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String username = auth.getName();
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1962,13 +2096,12 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/changeAreaName/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody String changeAreaName(@PathVariable String areaName, @RequestBody String newName) {        
         //Removing all invalid characters:
         newName = newName.replaceAll("\\<.*?>","").replaceAll("[\"/\\\\.?;#%\u20AC]", "");        
         newName = newName.trim();
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -1991,26 +2124,17 @@ public class JSONController {
                 oldArea.setAdmins(null);
                 newArea.setEditors(oldArea.getEditors());
                 oldArea.setEditors(null);
-
-                Query storyQuery = session.createQuery("from Story where area like ?");
-                storyQuery.setParameter(0, oldArea);
-                List<Story> stories = Util.castList(Story.class, storyQuery.list());
-                for (Story story : stories) {
-                    story.setArea(newArea);
-                }
-
-                Query epicQuery = session.createQuery("from Epic where area like ?");
-                epicQuery.setParameter(0, oldArea);
-                List<Epic> epics = Util.castList(Epic.class, epicQuery.list());
-                for (Epic epic : epics) {
-                    epic.setArea(newArea);
-                }
-
-                Query themeQuery = session.createQuery("from Theme where area like ?");
-                themeQuery.setParameter(0, oldArea);
-                List<Theme> themes = Util.castList(Theme.class, themeQuery.list());
-                for (Theme theme : themes) {
-                    theme.setArea(newArea);
+                //The new area must exist before any items refer to it
+                session.flush();
+
+                //Move all items with one statement per table. The bulk updates
+                //evict the cached stories, epics and themes.
+                for (String entityName : new String[] {"Story", "Epic", "Theme"}) {
+                    Query moveQuery = session.createQuery("update " + entityName
+                            + " set area = :newArea where area = :oldArea");
+                    moveQuery.setEntity("newArea", newArea);
+                    moveQuery.setEntity("oldArea", oldArea);
+                    moveQuery.executeUpdate();
                 }
 
                 session.delete(oldArea);
@@ -2018,6 +2142,16 @@ public class JSONController {
                 newName = null;
             }
             tx.commit();
+            SnapshotCache.invalidate(areaName);
+            AutocompleteIndex.invalidate(areaName);
+            permissionCache.invalidateArea(areaName);
+            AreaMetadataCache.invalidate(areaName);
+            if (newName != null) {
+                ChangeLog.remove(areaName);
+                AutocompleteIndex.invalidate(newName);
+                permissionCache.invalidateArea(newName);
+                AreaMetadataCache.invalidate(newName);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -2032,101 +2166,24 @@ public class JSONController {
 
 
     /**
-     * Used when deleting an area
-     * @return true if everything was ok
-     * @throws IOException 
-     * @throws JsonMappingException 
-     * @throws JsonGenerationException 
+     * Used when deleting an area. The area is deleted in the background,
+     * see {@link #getDeleteAreaStatus(String)}.
+     * @return true if the deletion was started, false if the area doesn't exist
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/deleteArea/{areaName}", method = RequestMethod.POST)
-    @Transactional
-    public @ResponseBody boolean deleteArea(@PathVariable String areaName) throws JsonGenerationException, JsonMappingException, IOException {
-        Session session = sessionFactory.openSession();
-        Transaction tx = null;
-        try {
-            tx = session.beginTransaction();
-
-            //Firstly, unlink elements from each other
-            Query taskQuery = session.createQuery("from Task where story.area.name like ?");
-            taskQuery.setParameter(0, areaName);
-            List<Task> tasks = Util.castList(Task.class, taskQuery.list());
-            for (Task task : tasks) {
-                task.setStory(null);
-            }
-
-            Query storyQuery = session.createQuery("from Story where area.name like ?");
-            storyQuery.setParameter(0, areaName);
-            List<Story> stories = Util.castList(Story.class, storyQuery.list());
-            for (Story story : stories) {
-                story.setTheme(null);
-                story.setEpic(null);
-            }
-
-            Query epicQuery = session.createQuery("from Epic where area.name like ?");
-            epicQuery.setParameter(0, areaName);
-            List<Epic> epics = Util.castList(Epic.class, epicQuery.list());
-            for (Epic epic : epics) {
-                epic.setTheme(null);
-                epic.setChildren(null);
-            }
-
-            Query themeQuery = session.createQuery("from Theme where area.name like ?");
-            themeQuery.setParameter(0, areaName);
-            List<Theme> themes = Util.castList(Theme.class, themeQuery.list());
-            for (Theme theme : themes) {
-                theme.setChildren(null);
-            }
-
-            tx.commit();
-            tx = session.beginTransaction();
-
-            //Secondly, remove all elements
-            for (Task task : tasks) {
-                session.delete(task);
-            }
-            for (Story story : stories) {
-                session.delete(story);
-            }
-            for (Epic epic : epics) {
-                session.delete(epic);
-            }
-            for (Theme theme : themes) {
-                session.delete(theme);
-            }
-
-            Area area = (Area) session.get(Area.class, areaName);
-
-            for (AttributeOption option : area.getStoryAttr1().getOptions()) {
-                session.delete(option);
-            }
-            for (AttributeOption option : area.getStoryAttr2().getOptions()) {
-                session.delete(option);
-            }
-            for (AttributeOption option : area.getStoryAttr3().getOptions()) {
-                session.delete(option);
-            }
-            for (AttributeOption option : area.getTaskAttr1().getOptions()) {
-                session.delete(option);
-            }
-            session.delete(area.getStoryAttr1());
-            session.delete(area.getStoryAttr2());
-            session.delete(area.getStoryAttr3());
-            session.delete(area.getTaskAttr1());
-
-            session.delete(area);
+    public @ResponseBody boolean deleteArea(@PathVariable String areaName) {
+        return areaDeleter.start(areaName) != null;
+    }
 
-            tx.commit();
-        } catch (Exception e) {
-            e.printStackTrace();
-            if (tx != null) {
-                tx.rollback();
-            }
-        } finally {
-            session.close();
-        }
-        AtmosphereHandler.push(areaName, getJsonStringInclChildren("AreaDelete", "{}", ALL_VIEWS));
-        return true;
+    /**
+     * Returns the progress of the deletion of an area
+     * @return the status, with state running, done or failed, or null if
+     * the area hasn't been deleted recently
+     */
+    @RequestMapping(value="/deleteAreaStatus/{areaName}", method = RequestMethod.GET)
+    public @ResponseBody AreaDeleter.Status getDeleteAreaStatus(@PathVariable String areaName) {
+        return areaDeleter.getStatus(areaName);
     }
 
     /**
@@ -2135,9 +2192,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/addAdmin/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean addAdmin(@PathVariable String areaName, @RequestBody String username) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -2156,6 +2212,8 @@ public class JSONController {
             }
 
             tx.commit();
+            permissionCache.invalidateArea(areaName);
+            AreaMetadataCache.invalidate(areaName);
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -2174,9 +2232,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/removeAdmin/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean removeAdmin(@PathVariable String areaName, @RequestBody String username) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -2195,6 +2252,8 @@ public class JSONController {
             }
 
             tx.commit();
+            permissionCache.invalidateArea(areaName);
+            AreaMetadataCache.invalidate(areaName);
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -2213,9 +2272,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/addEditor/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean addEditor(@PathVariable String areaName, @RequestBody String username) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -2234,6 +2292,8 @@ public class JSONController {
             }
 
             tx.commit();
+            permissionCache.invalidateArea(areaName);
+            AreaMetadataCache.invalidate(areaName);
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -2252,9 +2312,8 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/removeEditor/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean removeEditor(@PathVariable String areaName, @RequestBody String username) {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -2273,6 +2332,8 @@ public class JSONController {
             }
 
             tx.commit();
+            permissionCache.invalidateArea(areaName);
+            AreaMetadataCache.invalidate(areaName);
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -2294,10 +2355,9 @@ public class JSONController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isAdmin')")
     @RequestMapping(value="/updateAttribute/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody boolean updateAttribute(@PathVariable String areaName,
             @RequestBody Attribute updatedAttribute) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -2323,6 +2383,7 @@ public class JSONController {
 
             //Build Hashmap to update..
             Map<Integer,AttributeOption> dbOptionsMap = new HashMap<Integer, AttributeOption>();
+            List<AttributeOption> removedOptions = new ArrayList<AttributeOption>();
             Iterator<AttributeOption> itr = dbOptions.iterator();
             while (itr.hasNext()) {
                 AttributeOption option = itr.next();
@@ -2330,33 +2391,31 @@ public class JSONController {
                     dbOptionsMap.put(option.getId(), option);
                 } else {
                     itr.remove();
+                    removedOptions.add(option);
+                }
+            }
 
-                    //Option was removed; reset all stories that have this option
-                    Query storyQuery = session.createQuery("from Story where area.name like ?");
-                    storyQuery.setParameter(0, areaName);
-                    List<Story> stories = Util.castList(Story.class, storyQuery.list());
-                    for (Story story : stories) {
-                        if (story.getStoryAttr1() == option) {
-                            story.setStoryAttr1(null);
-                        }
-                        if (story.getStoryAttr2() == option) {
-                            story.setStoryAttr2(null);
-                        }
-                        if (story.getStoryAttr3() == option) {
-                            story.setStoryAttr3(null);
-                        }
-                    }
-                    session.delete(option);
+            if (!removedOptions.isEmpty()) {
+                //Options were removed; reset all stories or tasks that have them
+                String entityName = "Story";
+                String column = null;
+                if (area.getStoryAttr1() == dbAttribute) {
+                    column = "storyAttr1";
+                } else if (area.getStoryAttr2() == dbAttribute) {
+                    column = "storyAttr2";
+                } else if (area.getStoryAttr3() == dbAttribute) {
+                    column = "storyAttr3";
+                } else {
+                    entityName = "Task";
+                    column = "taskAttr1";
+                }
+                Query resetQuery = session.createQuery("update " + entityName + " set " + column
+                        + " = null where " + column + " in (:options)");
+                resetQuery.setParameterList("options", removedOptions);
+                resetQuery.executeUpdate();
 
-                    //If it was a task attribute, reset all tasks with that attribute
-                    Query taskQuery = session.createQuery("from Task where story.area.name like ?");
-                    taskQuery.setParameter(0, areaName);
-                    List<Task> tasks = Util.castList(Task.class, taskQuery.list());
-                    for (Task task : tasks) {
-                        if (task.getTaskAttr1() == option) {
-                            task.setTaskAttr1(null);
-                        }
-                    }
+                for (AttributeOption option : removedOptions) {
+                    session.delete(option);
                 }
             }
 
@@ -2379,6 +2438,8 @@ public class JSONController {
             }
 
             tx.commit();
+            SnapshotCache.invalidate(areaName);
+            AreaMetadataCache.invalidate(areaName);
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -2396,7 +2457,6 @@ public class JSONController {
      * @return Area
      */
     @RequestMapping(value="/readArea/{areaName}", method = RequestMethod.GET)
-    @Transactional
     public @ResponseBody Area readArea(@PathVariable String areaName) {
         return Util.getArea(areaName, sessionFactory);
     }
@@ -2418,9 +2478,7 @@ public class JSONController {
      * @throws IOException
      */
     public static <T> String getJsonStringExclChildren(Class<T> clazz, Object data, String viewParam) throws JsonGenerationException, JsonMappingException, IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.getSerializationConfig().addMixInAnnotations(clazz, ChildrenExcluder.class);
-        return generateJsonString(mapper, clazz.getSimpleName(), data, viewParam);
+        return generateJsonString(JsonMappers.withoutChildren(clazz), clazz.getSimpleName(), data, viewParam);
     }
 
     /**
@@ -2434,8 +2492,7 @@ public class JSONController {
      * @throws IOException
      */
     public static <T> String getJsonStringInclChildren(String type, Object data, String viewParam) throws JsonGenerationException, JsonMappingException, IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        return generateJsonString(mapper, type, data, viewParam);
+        return generateJsonString(JsonMappers.withChildren(), type, data, viewParam);
     }
 
     private static <T> String generateJsonString(ObjectMapper mapper, String type, Object data, String viewParam) throws JsonGenerationException, JsonMappingException, IOException {
@@ -2446,13 +2503,45 @@ public class JSONController {
         return mapper.writeValueAsString(typeMapper);
     }
 
+    /**
+     * Used by clients that have lost their push connection to read the push
+     * messages they have missed. The response has the format
+     * {"revision":..,"resync":false,"changes":[{msg1},{msg2}]}, and resync is
+     * true if the messages aren't kept anymore and the view has to be reloaded.
+     * @param areaName
+     * @param since the revision of the last push message the client has got
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/changes/{areaName}", method = RequestMethod.GET)
+    public void printChanges(@PathVariable String areaName, @RequestParam long since,
+            HttpServletResponse response) throws IOException {
+        ChangeLog.Changes result = ChangeLog.getChanges(areaName, since);
+        List<String> changes = result.getMessages();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"revision\":").append(result.getRevision());
+        sb.append(",\"resync\":").append(changes == null);
+        sb.append(",\"changes\":[");
+        if (changes != null) {
+            for (int i = 0; i < changes.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(changes.get(i));
+            }
+        }
+        sb.append("]}");
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(sb.toString().getBytes("UTF-8"));
+    }
+
     /**
      * Used by clients to register themselves for push-notifications for a certain area
      * @param event
      * @param areaName
      */
     @RequestMapping(value = "/register/{areaName}", method = RequestMethod.GET)
-    @Transactional
     public @ResponseBody void registerForArea(final AtmosphereResource event, @PathVariable String areaName) {
 //        System.out.println("=== INFO === registerForArea() with areaName " + areaName);
         AtmosphereHandler.suspendClient(event, areaName);
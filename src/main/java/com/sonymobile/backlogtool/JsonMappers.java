@@ -0,0 +1,83 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * Shared object mappers used when building JSON data. An ObjectMapper keeps
+ * the serializers it has built, so creating a new mapper for every message
+ * means building all serializers again. The mappers are configured once
+ * and must not be changed by callers; after that they are thread-safe.
+ */
+public final class JsonMappers {
+
+    private static final ObjectMapper WITH_CHILDREN = new ObjectMapper();
+
+    /** Maps a class to a mapper that leaves out the children of that class. */
+    private static final ConcurrentMap<Class<?>, ObjectMapper> WITHOUT_CHILDREN =
+            new ConcurrentHashMap<Class<?>, ObjectMapper>();
+
+    static {
+        for (Class<?> clazz : new Class<?>[] {Task.class, Story.class, Epic.class, Theme.class}) {
+            WITHOUT_CHILDREN.put(clazz, createMapperWithoutChildren(clazz));
+        }
+    }
+
+    private JsonMappers() {
+    }
+
+    /**
+     * @return mapper that includes all children
+     */
+    public static ObjectMapper withChildren() {
+        return WITH_CHILDREN;
+    }
+
+    /**
+     * @param clazz the class (e.g. Story.class) whose children should be left out
+     * @return mapper that uses the ChildrenExcluder mixin on clazz
+     */
+    public static ObjectMapper withoutChildren(Class<?> clazz) {
+        ObjectMapper mapper = WITHOUT_CHILDREN.get(clazz);
+        if (mapper == null) {
+            mapper = createMapperWithoutChildren(clazz);
+            ObjectMapper existing = WITHOUT_CHILDREN.putIfAbsent(clazz, mapper);
+            if (existing != null) {
+                mapper = existing;
+            }
+        }
+        return mapper;
+    }
+
+    private static ObjectMapper createMapperWithoutChildren(Class<?> clazz) {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.getSerializationConfig().addMixInAnnotations(clazz, ChildrenExcluder.class);
+        return mapper;
+    }
+
+}
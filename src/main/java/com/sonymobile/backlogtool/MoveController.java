@@ -39,7 +39,6 @@ import org.hibernate.Transaction;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -70,9 +69,8 @@ public class MoveController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/movestory-task/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Set<Story> moveStory(@PathVariable String areaName, @RequestBody MoveContainer moveContainer) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         List<Story> affectedStories = new ArrayList<Story>();
         Set<Story> parentsToPush = new HashSet<Story>();
@@ -95,6 +93,7 @@ public class MoveController {
             }
             // Maps a parents id to its prio
             HashMap<Integer, Integer> movedParentsPrio = new HashMap<Integer, Integer>();
+            Placement placement = null;
             if (itemTypes.equals("child")) {
                 if (lastParent == null) {
                     //The children were placed first in list, don't do anything
@@ -168,40 +167,9 @@ public class MoveController {
                     movedParents.add(movedParent);
                 }
 
-                //Get all parents
-                Query query = session.createQuery("from Story where area.name like ? and archived=false order by prio");
-                query.setParameter(0, areaName);
-                List<Story> allParents = Util.castList(Story.class, query.list());
-
-                int prioCounter = 1;
-
-                if (lastParent == null) {
-                    //The moved parents will be placed first and all other moved down
-                    for (Story parent : movedParents) {
-                        parent.setPrio(prioCounter++);
-                    }
-                    for (Story parent : allParents) {
-                        if (!movedParents.contains(parent)) {
-                            parent.setPrio(prioCounter++);
-                        }
-                    }
-                } else {
-                    //The moved parents will be placed after lastParent
-                    for (Story parent : allParents) {
-                        if (!movedParents.contains(parent)) {
-                            parent.setPrio(prioCounter++);
-                        }
-                        if (parent == lastParent) {
-                            for (Story movedParent : movedParents) {
-                                movedParent.setPrio(prioCounter++);
-                            }
-                        }
-                    }
-                }
-
-                for (Story parent : allParents) {
-                    movedParentsPrio.put(parent.getId(), parent.getPrio());
-                }
+                placement = placeParents(BacklogType.STORY, areaName,
+                        lastParent, movedParents, session);
+                movedParentsPrio = placement.ranks;
 
             }
             HashMap<String, Object> moveActionMap = new HashMap<String, Object>();
@@ -215,6 +183,9 @@ public class MoveController {
 
             tx.commit();
             AtmosphereHandler.push(areaName, jsonString);
+            if (placement != null && placement.crowded) {
+                RankRebalancer.schedule(BacklogType.STORY, areaName, sessionFactory);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -235,9 +206,8 @@ public class MoveController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/moveepic-story/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Set<Epic> moveEpic(@PathVariable String areaName, @RequestBody MoveContainer moveContainer) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Set<Epic> parentsToPush = new HashSet<Epic>();
         try {
@@ -259,6 +229,7 @@ public class MoveController {
             }
             // Maps a parents id to its prio
             HashMap<Integer, Integer> movedParentsPrio = new HashMap<Integer, Integer>();
+            Placement placement = null;
             List<Story> movedChildren = new ArrayList<Story>();
             if (itemTypes.equals("child")) {
                 if (lastParent == null) {
@@ -332,40 +303,9 @@ public class MoveController {
                     movedParents.add(movedParent);
                 }
 
-                //Get all parents
-                Query query = session.createQuery("from Epic where area.name like ? and archived=false order by prio");
-                query.setParameter(0, areaName);
-                List<Epic> allParents = Util.castList(Epic.class, query.list());
-
-                int prioCounter = 1;
-
-                if (lastParent == null) {
-                    //The moved parents will be placed first and all other moved down
-                    for (Epic parent : movedParents) {
-                        parent.setPrio(prioCounter++);
-                    }
-                    for (Epic parent : allParents) {
-                        if (!movedParents.contains(parent)) {
-                            parent.setPrio(prioCounter++);
-                        }
-                    }
-                } else {
-                    //The moved parents will be placed after lastParent
-                    for (Epic parent : allParents) {
-                        if (!movedParents.contains(parent)) {
-                            parent.setPrio(prioCounter++);
-                        }
-                        if (parent == lastParent) {
-                            for (Epic movedParent : movedParents) {
-                                movedParent.setPrio(prioCounter++);
-                            }
-                        }
-                    }
-                }
-
-                for (Epic parent : allParents) {
-                    movedParentsPrio.put(parent.getId(), parent.getPrio());
-                }
+                placement = placeParents(BacklogType.EPIC, areaName,
+                        lastParent, movedParents, session);
+                movedParentsPrio = placement.ranks;
             }
 
             List<String> messages = new ArrayList<String>();
@@ -383,6 +323,9 @@ public class MoveController {
             messages.add(JSONController.getJsonStringInclChildren(itemTypes + "Move", moveActionMap, JSONController.EPIC_STORY_VIEW));
             tx.commit();
             AtmosphereHandler.pushJsonMessages(areaName, messages);
+            if (placement != null && placement.crowded) {
+                RankRebalancer.schedule(BacklogType.EPIC, areaName, sessionFactory);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -403,9 +346,8 @@ public class MoveController {
      */
     @PreAuthorize("hasPermission(#areaName, 'isEditor')")
     @RequestMapping(value="/movetheme-epic/{areaName}", method = RequestMethod.POST)
-    @Transactional
     public @ResponseBody Set<Theme> moveTheme(@PathVariable String areaName, @RequestBody MoveContainer moveContainer) throws Exception {
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         Set<Theme> parentsToPush = new HashSet<Theme>();
         try {
@@ -427,6 +369,7 @@ public class MoveController {
             }
             // Maps a parents id to its prio
             HashMap<Integer, Integer> movedParentsPrio = new HashMap<Integer, Integer>();
+            Placement placement = null;
             List<Epic> movedChildren = new ArrayList<Epic>();
             if (itemTypes.equals("child")) {
                 if (lastParent == null) {
@@ -502,40 +445,9 @@ public class MoveController {
                     movedParents.add(movedParent);
                 }
 
-                //Get all parents
-                Query query = session.createQuery("from Theme where area.name like ? and archived=false order by prio");
-                query.setParameter(0, areaName);
-                List<Theme> allParents = Util.castList(Theme.class, query.list());
-
-                int prioCounter = 1;
-
-                if (lastParent == null) {
-                    //The moved parents will be placed first and all other moved down
-                    for (Theme parent : movedParents) {
-                        parent.setPrio(prioCounter++);
-                    }
-                    for (Theme parent : allParents) {
-                        if (!movedParents.contains(parent)) {
-                            parent.setPrio(prioCounter++);
-                        }
-                    }
-                } else {
-                    //The moved parents will be placed after lastParent
-                    for (Theme parent : allParents) {
-                        if (!movedParents.contains(parent)) {
-                            parent.setPrio(prioCounter++);
-                        }
-                        if (parent == lastParent) {
-                            for (Theme movedParent : movedParents) {
-                                movedParent.setPrio(prioCounter++);
-                            }
-                        }
-                    }
-                }
-
-                for (Theme parent : allParents) {
-                    movedParentsPrio.put(parent.getId(), parent.getPrio());
-                }
+                placement = placeParents(BacklogType.THEME, areaName,
+                        lastParent, movedParents, session);
+                movedParentsPrio = placement.ranks;
             }
 
             List<String> messages = new ArrayList<String>();
@@ -553,7 +465,13 @@ public class MoveController {
             messages.add(JSONController.getJsonStringInclChildren(itemTypes + "Move", moveActionMap, JSONController.THEME_EPIC_VIEW));
 
             tx.commit();
+            for (Epic e : movedChildren) {
+                AutocompleteIndex.putEpic(areaName, e);
+            }
             AtmosphereHandler.pushJsonMessages(areaName, messages);
+            if (placement != null && placement.crowded) {
+                RankRebalancer.schedule(BacklogType.THEME, areaName, sessionFactory);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -566,6 +484,85 @@ public class MoveController {
         return parentsToPush;
     }
 
+    /**
+     * Gives the moved parents new ranks right after lastParent. Only the moved
+     * parents get new ranks. If few free ranks are left between them, the
+     * placement is marked as crowded, and the caller should schedule a
+     * renumbering with {@link RankRebalancer} after the move is pushed. Only
+     * if no free rank at all is left, e.g. because the renumbering hasn't run
+     * yet, are all ranks in the area rebuilt in this request.
+     * @param type backlog type of the parents
+     * @param areaName the area the parents belong to
+     * @param lastParent the parent to place the moved parents after, or null to place them first
+     * @param movedParents the moved parents, in the order they should get
+     * @param session hibernate session
+     * @return the new ranks, mapped by id
+     * @throws Exception if there was no room for the moved parents
+     */
+    private Placement placeParents(BacklogType type, String areaName,
+            Ranked lastParent, List<? extends Ranked> movedParents, Session session) throws Exception {
+        Placement placement = new Placement();
+        HashMap<Integer, Integer> newRanks = placement.ranks;
+        boolean rebuilt = false;
+        while (true) {
+            long lowerRank = 0;
+            if (lastParent != null) {
+                lowerRank = lastParent.getPrio();
+            }
+
+            //Find the first parent after lastParent that is not moved
+            Query query = session.createQuery("from " + RankAllocator.getEntityName(type)
+                    + " where area.name = ? and archived=false and prio > ? order by prio");
+            query.setParameter(0, areaName);
+            query.setParameter(1, (int) lowerRank);
+            query.setMaxResults(movedParents.size() + 1);
+            long upperRank = lowerRank + (long) (movedParents.size() + 1) * RankAllocator.RANK_GAP;
+            for (Ranked parent : Util.castList(Ranked.class, query.list())) {
+                if (!movedParents.contains(parent)) {
+                    upperRank = parent.getPrio();
+                    break;
+                }
+            }
+
+            long step = (upperRank - lowerRank) / (movedParents.size() + 1);
+            if (step > 0 && lowerRank + step * movedParents.size() <= Integer.MAX_VALUE) {
+                long rank = lowerRank;
+                for (Ranked movedParent : movedParents) {
+                    rank += step;
+                    movedParent.setPrio((int) rank);
+                    newRanks.put(movedParent.getId(), movedParent.getPrio());
+                }
+                placement.crowded = !rebuilt && step < RankRebalancer.MIN_FREE_RANKS;
+                break;
+            } else if (rebuilt) {
+                throw new Exception("No free ranks left for the moved items!");
+            }
+            Util.rebuildRanks(type, (Area) session.get(Area.class, areaName), session);
+            rebuilt = true;
+        }
+
+        if (rebuilt) {
+            //All ranks were changed, send them all
+            Query query = session.createQuery("from " + RankAllocator.getEntityName(type)
+                    + " where area.name = ? and archived=false");
+            query.setParameter(0, areaName);
+            for (Ranked parent : Util.castList(Ranked.class, query.list())) {
+                newRanks.put(parent.getId(), parent.getPrio());
+            }
+        }
+        return placement;
+    }
+
+    /**
+     * The new ranks of moved parents.
+     */
+    private static class Placement {
+        /** The new ranks, mapped by id. */
+        private final HashMap<Integer, Integer> ranks = new HashMap<Integer, Integer>();
+        /** True if few free ranks are left around the moved parents. */
+        private boolean crowded = false;
+    }
+
     /**
      * Checks that all items in moveContainer are of same type and returns the type.
      * @param moveContainer
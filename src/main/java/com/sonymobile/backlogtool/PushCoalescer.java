@@ -0,0 +1,214 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Collects the push messages of an area for a short window and broadcasts
+ * them as one message in the {msg1},{msg2}, format of
+ * {@link BroadcastDelimiter}. Long-polling clients then reconnect once per
+ * window instead of once per message.
+ * <p>
+ * If the same item (type, id and views) is updated several times within the
+ * window, only the last update is sent. Other messages, e.g. moves and
+ * deletes, are always sent in the order they were added.
+ * <p>
+ * The window is set in milliseconds with push.window in
+ * backlogtool.properties, and is injected when the servlet context starts.
+ * A window of 0 broadcasts every message directly.
+ * <p>
+ * All messages are added to the {@link ChangeLog} of the area, and every
+ * broadcast ends with a Revision message that tells the clients the revision
+ * of the last message in it.
+ */
+@Component
+final class PushCoalescer {
+
+    /** Message types that contain the whole item and replace older messages for it. */
+    private static final String[] ITEM_TYPES = {"Story", "Task", "Epic", "Theme"};
+
+    /** Window used until the servlet context has started. */
+    private static final long DEFAULT_WINDOW = 50;
+
+    private static volatile long window = DEFAULT_WINDOW;
+
+    private static final ScheduledExecutorService EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "push-coalescer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** Maps an area name to the messages waiting to be broadcasted. */
+    private static final Map<String, Batch> PENDING = new HashMap<String, Batch>();
+
+    private PushCoalescer() {
+    }
+
+    /**
+     * Sets the window of all areas.
+     * @param window the window in milliseconds
+     */
+    @Value("${push.window:50}")
+    void setWindow(long window) {
+        PushCoalescer.window = window;
+    }
+
+    /**
+     * Adds messages to the next broadcast of the area.
+     * @param areaName the area to push to
+     * @param messages JSON messages, one object each
+     */
+    static void add(final String areaName, List<String> messages) {
+        long window = PushCoalescer.window;
+        if (window <= 0) {
+            long revision = ChangeLog.append(areaName, messages);
+            broadcast(areaName, messages.iterator(), revision);
+            return;
+        }
+        synchronized (PENDING) {
+            Batch pending = PENDING.get(areaName);
+            if (pending == null) {
+                pending = new Batch();
+                PENDING.put(areaName, pending);
+                EXECUTOR.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(areaName);
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+            }
+            for (String message : messages) {
+                Object key = getItemKey(message);
+                //Remove first so that the message is placed after the ones before it
+                pending.messages.remove(key);
+                pending.messages.put(key, message);
+            }
+            pending.revision = ChangeLog.append(areaName, messages);
+        }
+    }
+
+    private static void flush(String areaName) {
+        Batch pending;
+        synchronized (PENDING) {
+            pending = PENDING.remove(areaName);
+        }
+        if (pending != null && !pending.messages.isEmpty()) {
+            try {
+                broadcast(areaName, pending.messages.values().iterator(), pending.revision);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void broadcast(String areaName, Iterator<String> messages, long revision) {
+        StringBuilder sb = new StringBuilder();
+        while (messages.hasNext()) {
+            sb.append(messages.next()).append(',');
+        }
+        sb.append("{\"type\":\"Revision\",\"data\":").append(revision).append(",\"views\":\"*\"}");
+        AtmosphereHandler.getBroadcasterForArea(areaName).broadcast(sb.toString());
+    }
+
+    /**
+     * Reads the type, views and data id of a message. Only the first level
+     * of the message is parsed.
+     * @param message JSON message
+     * @return a key that is equal for updates of the same item, or a new
+     * object if the message should never be replaced
+     */
+    private static Object getItemKey(String message) {
+        String type = null;
+        String views = null;
+        Integer id = null;
+        try {
+            JsonParser parser = JsonMappers.withChildren().getJsonFactory().createJsonParser(message);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return new Object();
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if ("type".equals(field) && value == JsonToken.VALUE_STRING) {
+                        type = parser.getText();
+                    } else if ("views".equals(field) && value == JsonToken.VALUE_STRING) {
+                        views = parser.getText();
+                    } else if ("data".equals(field) && value == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String dataField = parser.getCurrentName();
+                            if (parser.nextToken() == JsonToken.VALUE_NUMBER_INT
+                                    && "id".equals(dataField)) {
+                                id = parser.getIntValue();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            return new Object();
+        }
+        if (type == null || views == null || id == null) {
+            return new Object();
+        }
+        for (String itemType : ITEM_TYPES) {
+            if (itemType.equals(type)) {
+                return type + ":" + id + ":" + views;
+            }
+        }
+        return new Object();
+    }
+
+    private static class Batch {
+
+        private final Map<Object, String> messages = new LinkedHashMap<Object, String>();
+        private long revision;
+    }
+
+}
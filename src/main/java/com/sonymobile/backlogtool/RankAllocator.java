@@ -0,0 +1,160 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.engine.EntityKey;
+
+/**
+ * Hands out ranks for backlog items that should be placed at the bottom of
+ * the backlog. The last used rank of an area is read with an aggregate query
+ * the first time it is needed and then kept in this allocator, so one
+ * allocator should be used per session/request.
+ * <p>
+ * Ranks are spaced {@link #RANK_GAP} apart. Moving an item only needs a free
+ * rank between its new neighbours, and the area is renumbered with
+ * {@link Util#rebuildRanks(BacklogType, Area, Session)} when no such rank is left.
+ */
+public class RankAllocator {
+
+    /** Distance between two ranks handed out after each other. */
+    public static final int RANK_GAP = 1024;
+
+    private final Session session;
+
+    /** Maps "type:areaName" to the last rank handed out. */
+    private final Map<String, Integer> lastRanks = new HashMap<String, Integer>();
+
+    public RankAllocator(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns the next available rank for the given type in the area and
+     * reserves it, so that the next call returns the rank after it.
+     * @param type backlog type to get rank for
+     * @param area the area to look in
+     * @return next available rank
+     * @throws RuntimeException if invalid type was specified
+     */
+    public int next(BacklogType type, Area area) throws RuntimeException {
+        String key = type + ":" + area.getName();
+        Integer lastRank = lastRanks.get(key);
+        if (lastRank == null) {
+            lastRank = getLastPrio(type, area, session);
+            if (lastRank > Integer.MAX_VALUE - RANK_GAP) {
+                //Ran out of ranks at the end, spread them out again
+                Util.rebuildRanks(type, area, session);
+                lastRank = getLastPrio(type, area, session);
+            }
+        }
+        int nextRank = lastRank + RANK_GAP;
+        lastRanks.put(key, nextRank);
+        return nextRank;
+    }
+
+    /**
+     * Returns the highest rank used by non-archived items of the given type.
+     * @param type backlog type to check rank on
+     * @param area the area to look in
+     * @param session hibernate session
+     * @return the highest rank, or 0 if there are no items
+     * @throws RuntimeException if invalid type was specified
+     */
+    public static int getLastPrio(BacklogType type, Area area, Session session) throws RuntimeException {
+        Query q = session.createQuery("select max(prio) from " + getEntityName(type)
+                + " where area = ? and archived=false");
+        q.setParameter(0, area);
+        Number lastPrio = (Number) q.uniqueResult();
+        if (lastPrio == null) {
+            return 0;
+        }
+        return lastPrio.intValue();
+    }
+
+    /**
+     * Moves the rank of all non-archived items of the given type that are ranked
+     * after afterRank with one bulk update. Hibernate evicts the second-level
+     * cache region of the type when the update is executed, and flushes
+     * pending changes before it. Items that are already loaded in the session
+     * and were moved are refreshed, so that they aren't flushed back with
+     * their old rank. Setting the new rank on them instead would make them
+     * dirty and cause an extra update of each of them.
+     * @param type backlog type to move ranks for
+     * @param area the area to look in
+     * @param afterRank only items with a higher rank are moved
+     * @param delta the number to add to the ranks
+     * @param session hibernate session
+     * @return number of moved items
+     * @throws RuntimeException if invalid type was specified
+     */
+    public static int shiftRanks(BacklogType type, Area area, int afterRank, int delta,
+            Session session) throws RuntimeException {
+        String entityName = getEntityName(type);
+        Query q = session.createQuery("update " + entityName + " set prio = prio + :delta"
+                + " where area = :area and prio > :rank and archived=false");
+        q.setInteger("delta", delta);
+        q.setEntity("area", area);
+        q.setInteger("rank", afterRank);
+        int shifted = q.executeUpdate();
+
+        List<?> loadedKeys = new ArrayList<Object>(session.getStatistics().getEntityKeys());
+        for (Object key : loadedKeys) {
+            EntityKey entityKey = (EntityKey) key;
+            if (entityKey.getEntityName().endsWith("." + entityName)) {
+                Ranked item = (Ranked) session.get(entityKey.getEntityName(), entityKey.getIdentifier());
+                if (!item.isArchived() && item.getPrio() > afterRank
+                        && item.getArea().getName().equals(area.getName())) {
+                    session.refresh(item);
+                }
+            }
+        }
+        return shifted;
+    }
+
+    /**
+     * @param type backlog type
+     * @return the entity name used in queries for the type
+     * @throws RuntimeException if the type has no rank
+     */
+    static String getEntityName(BacklogType type) throws RuntimeException {
+        switch (type) {
+        case STORY:
+            return "Story";
+        case EPIC:
+            return "Epic";
+        case THEME:
+            return "Theme";
+        default:
+            throw new RuntimeException("Invalid type specified");
+        }
+    }
+
+}
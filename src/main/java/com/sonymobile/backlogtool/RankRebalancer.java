@@ -0,0 +1,147 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Renumbers the ranks of an area in the background when the free ranks
+ * between its items are running out. Moves call {@link #schedule} after they
+ * have been committed and pushed, so that they don't have to rewrite the
+ * whole area themselves. The new ranks are pushed as a parentMove message.
+ */
+final class RankRebalancer {
+
+    /**
+     * A move that leaves less than this between two neighbouring ranks
+     * schedules a renumbering of the area.
+     */
+    static final int MIN_FREE_RANKS = RankAllocator.RANK_GAP / 16;
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "rank-rebalancer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /** "type:areaName" of the renumberings that are scheduled but not started. */
+    private static final Set<String> PENDING = new HashSet<String>();
+
+    private RankRebalancer() {
+    }
+
+    /**
+     * Schedules a renumbering of the ranks of a type in an area, unless one
+     * is already waiting to run.
+     * @param type STORY, EPIC or THEME
+     * @param areaName the area
+     * @param sessionFactory hibernate session factory
+     */
+    static void schedule(final BacklogType type, final String areaName, final SessionFactory sessionFactory) {
+        final String key = type + ":" + areaName;
+        synchronized (PENDING) {
+            if (!PENDING.add(key)) {
+                return;
+            }
+        }
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PENDING) {
+                    PENDING.remove(key);
+                }
+                rebalance(type, areaName, sessionFactory);
+            }
+        });
+    }
+
+    private static void rebalance(BacklogType type, String areaName, SessionFactory sessionFactory) {
+        HashMap<Integer, Integer> newRanks = new HashMap<Integer, Integer>();
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            Area area = (Area) session.get(Area.class, areaName);
+            if (area != null) {
+                Util.rebuildRanks(type, area, session);
+                Query query = session.createQuery("from " + RankAllocator.getEntityName(type)
+                        + " where area = ? and archived=false");
+                query.setParameter(0, area);
+                for (Ranked item : Util.castList(Ranked.class, query.list())) {
+                    newRanks.put(item.getId(), item.getPrio());
+                }
+            }
+            tx.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            return;
+        } finally {
+            session.close();
+        }
+
+        if (!newRanks.isEmpty()) {
+            try {
+                HashMap<String, Object> moveActionMap = new HashMap<String, Object>();
+                moveActionMap.put("lastItem", null);
+                moveActionMap.put("objects", newRanks);
+                AtmosphereHandler.push(areaName, JSONController.getJsonStringInclChildren("parentMove",
+                        moveActionMap, getView(type)));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return the view that shows the type as parents
+     */
+    private static String getView(BacklogType type) {
+        switch (type) {
+        case STORY:
+            return JSONController.STORY_TASK_VIEW;
+        case EPIC:
+            return JSONController.EPIC_STORY_VIEW;
+        default:
+            return JSONController.THEME_EPIC_VIEW;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of what the backlog views of an area look like, e.g. the
+ * JSON data of the epic-story view sorted by prio. All changes to an area are
+ * pushed to its clients through {@link AtmosphereHandler#push(String, String)},
+ * which invalidates the snapshots of the area. Changes that aren't pushed
+ * must call {@link #invalidate(String)} themselves.
+ * <p>
+ * The cache is bounded both in number of snapshots and in total size, and the
+ * least recently used snapshots are evicted first.
+ */
+public final class SnapshotCache {
+
+    /** Max number of snapshots kept. */
+    private static final int MAX_SNAPSHOTS = 100;
+
+    /** Max total size in bytes of all snapshots. */
+    private static final long MAX_TOTAL_SIZE = 64L * 1024 * 1024;
+
+    /** Snapshots larger than this in bytes aren't cached. */
+    private static final int MAX_SNAPSHOT_SIZE = 8 * 1024 * 1024;
+
+    /** Snapshots in access order, the least recently used first. */
+    private static final LinkedHashMap<Key, Entry> snapshots =
+            new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /** Maps an area name to the number of times its snapshots have been invalidated. */
+    private static final Map<String, Long> generations = new HashMap<String, Long>();
+
+    private static long totalSize = 0;
+
+    private SnapshotCache() {
+    }
+
+    /**
+     * Returns the current generation of an area. Read it before reading the
+     * data of a snapshot and pass it on to {@link #put}, so that a snapshot
+     * that was read while the area was changed isn't cached.
+     * @param areaName the area
+     * @return the generation
+     */
+    public static synchronized long getGeneration(String areaName) {
+        Long generation = generations.get(areaName);
+        return generation != null ? generation : 0;
+    }
+
+    /**
+     * @param areaName the area
+     * @param view the view and the order it's sorted by
+     * @return the cached snapshot, or null if there is none
+     */
+    public static synchronized Object get(String areaName, String view) {
+        Entry entry = snapshots.get(new Key(areaName, view));
+        return entry != null ? entry.snapshot : null;
+    }
+
+    /**
+     * Caches a snapshot, unless the area has been changed since generation
+     * was read or the snapshot is too large.
+     * @param areaName the area
+     * @param view the view and the order it's sorted by
+     * @param generation the generation of the area when reading of the snapshot started
+     * @param snapshot the snapshot
+     * @param size estimated size of the snapshot in bytes
+     */
+    public static synchronized void put(String areaName, String view, long generation,
+            Object snapshot, int size) {
+        if (generation != getGeneration(areaName) || size > MAX_SNAPSHOT_SIZE) {
+            return;
+        }
+        Entry old = snapshots.put(new Key(areaName, view), new Entry(snapshot, size));
+        if (old != null) {
+            totalSize -= old.size;
+        }
+        totalSize += size;
+
+        Iterator<Entry> lruOrder = snapshots.values().iterator();
+        while (snapshots.size() > MAX_SNAPSHOTS || totalSize > MAX_TOTAL_SIZE) {
+            totalSize -= lruOrder.next().size;
+            lruOrder.remove();
+        }
+    }
+
+    /**
+     * Removes all snapshots of an area.
+     * @param areaName the area that was changed
+     */
+    public static synchronized void invalidate(String areaName) {
+        generations.put(areaName, getGeneration(areaName) + 1);
+        Iterator<Map.Entry<Key, Entry>> it = snapshots.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().areaName.equals(areaName)) {
+                totalSize -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Output stream that keeps a copy of what is written to it, as long as
+     * it's small enough to be cached.
+     */
+    public static class Recorder extends FilterOutputStream {
+
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        public Recorder(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                checkSize();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                checkSize();
+            }
+        }
+
+        private void checkSize() {
+            if (copy.size() > MAX_SNAPSHOT_SIZE) {
+                copy = null;
+            }
+        }
+
+        /**
+         * @return what was written, or null if it was too large to be cached
+         */
+        public byte[] getBytes() {
+            return copy != null ? copy.toByteArray() : null;
+        }
+    }
+
+    /**
+     * Snapshot of a page, with the ids of the items shown on the page in the
+     * order they are shown, and the JSON data of the items. The items
+     * themselves aren't cached, since they are mutable and can't be shared
+     * between requests.
+     */
+    public static class Page {
+
+        private final List<Integer> ids;
+        private final String json;
+
+        public Page(List<Integer> ids, String json) {
+            this.ids = Collections.unmodifiableList(new ArrayList<Integer>(ids));
+            this.json = json;
+        }
+
+        public List<Integer> getIds() {
+            return ids;
+        }
+
+        public String getJson() {
+            return json;
+        }
+    }
+
+    private static class Key {
+
+        private final String areaName;
+        private final String view;
+
+        Key(String areaName, String view) {
+            this.areaName = areaName;
+            this.view = view;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return areaName.equals(other.areaName) && view.equals(other.view);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * areaName.hashCode() + view.hashCode();
+        }
+    }
+
+    private static class Entry {
+
+        private final Object snapshot;
+        private final int size;
+
+        Entry(Object snapshot, int size) {
+            this.snapshot = snapshot;
+            this.size = size;
+        }
+    }
+
+}
@@ -46,6 +46,7 @@ import org.springframework.stereotype.Component;
 import com.sonymobile.backlogtool.dbupdate.DbUpdate;
 import com.sonymobile.backlogtool.dbupdate.DbUpdater;
 import com.sonymobile.backlogtool.dbupdate.SchemaVersion;
+import com.sonymobile.backlogtool.permission.PermissionCache;
 import com.sonymobile.backlogtool.permission.User;
 
 /**
@@ -60,17 +61,35 @@ public class StartUpListener implements ApplicationListener<ContextRefreshedEven
     @Autowired
     SessionFactory sessionFactory;
 
+    @Autowired
+    PermissionCache permissionCache;
+
+    /**
+     * The lowest schema version the application can run on. From version 5,
+     * hibernate_sequence increments by 50 as the pooled id generator in
+     * package-info.java expects. On an older schema the generator would hand
+     * out ids that are already in use.
+     */
+    private static final int REQUIRED_SCHEMA_VERSION = 5;
+
     @Override
     public void onApplicationEvent(ContextRefreshedEvent event) {  
         updateMasterAdmins();
-        updateDatabaseSchema();
+        int version = updateDatabaseSchema();
+        if (version < REQUIRED_SCHEMA_VERSION) {
+            throw new IllegalStateException("Database schema version is " + version
+                    + " but at least " + REQUIRED_SCHEMA_VERSION
+                    + " is needed. Fix the failed schema update and restart.");
+        }
     }
 
     /**
      * Checks for schema updates and applies them in order.
+     * @return the schema version after the updates, or -1 if it couldn't be read
      */
-    private void updateDatabaseSchema() {
+    private int updateDatabaseSchema() {
 
+        int version = -1;
         SchemaVersion schemaVersion = null;
         Session session = sessionFactory.openSession();
         Transaction tx = null;
@@ -120,6 +139,7 @@ public class StartUpListener implements ApplicationListener<ContextRefreshedEven
                 }
             }
             tx.commit();
+            version = schemaVersion.getVersion();
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -128,6 +148,7 @@ public class StartUpListener implements ApplicationListener<ContextRefreshedEven
         } finally {
             session.close();
         }
+        return version;
     }
 
     /**
@@ -167,6 +188,7 @@ public class StartUpListener implements ApplicationListener<ContextRefreshedEven
                 }
             }
             tx.commit();
+            permissionCache.invalidateAll();
 
         } catch (Exception e) {
             e.printStackTrace();
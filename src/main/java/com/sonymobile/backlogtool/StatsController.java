@@ -0,0 +1,110 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.sonymobile.backlogtool.permission.PermissionCache;
+
+/**
+ * Shows how the connection pool and the caches of the application are used.
+ * Only master admins may read the stats.
+ */
+@Controller
+@RequestMapping(value="/json/stats")
+public class StatsController {
+
+    @Autowired
+    InstrumentedDataSource dataSource;
+
+    @Autowired
+    PermissionCache permissionCache;
+
+    @Autowired
+    SessionFactory sessionFactory;
+
+    @PreAuthorize("hasPermission(null, 'isMasterAdmin')")
+    @RequestMapping(value="/pool", method=RequestMethod.GET)
+    public @ResponseBody Map<String, Object> getPoolStats() {
+        return dataSource.getStats();
+    }
+
+    @PreAuthorize("hasPermission(null, 'isMasterAdmin')")
+    @RequestMapping(value="/permissions", method=RequestMethod.GET)
+    public @ResponseBody Map<String, Object> getPermissionCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("hits", permissionCache.getHits());
+        stats.put("misses", permissionCache.getMisses());
+        return stats;
+    }
+
+    /**
+     * @return hits, misses and size of each second-level cache region, and
+     * hits and misses of the query cache
+     */
+    @PreAuthorize("hasPermission(null, 'isMasterAdmin')")
+    @RequestMapping(value="/cache", method=RequestMethod.GET)
+    public @ResponseBody Map<String, Object> getCacheStats() {
+        Statistics statistics = sessionFactory.getStatistics();
+        Map<String, Object> regions = new TreeMap<String, Object>();
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            SecondLevelCacheStatistics regionStatistics =
+                    statistics.getSecondLevelCacheStatistics(regionName);
+            Map<String, Object> region = getHitStats(regionStatistics.getHitCount(),
+                    regionStatistics.getMissCount());
+            region.put("puts", regionStatistics.getPutCount());
+            region.put("elementsInMemory", regionStatistics.getElementCountInMemory());
+            regions.put(regionName, region);
+        }
+        Map<String, Object> queryCache = getHitStats(statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount());
+        queryCache.put("puts", statistics.getQueryCachePutCount());
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("regions", regions);
+        stats.put("queryCache", queryCache);
+        return stats;
+    }
+
+    private static Map<String, Object> getHitStats(long hits, long misses) {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        return stats;
+    }
+
+}
@@ -37,7 +37,6 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
@@ -60,12 +59,12 @@ import org.hibernate.annotations.Cache;
 @Cache(usage=READ_WRITE)
 @Entity
 @Table(name="Stories")
-public class Story {
+public class Story implements Ranked {
     
     public static final int DESCRIPTION_LENGTH = 100000;
 
     @Id
-    @GeneratedValue(strategy=GenerationType.SEQUENCE)
+    @GeneratedValue(generator="pooledSequence")
     private int id;
 
     @Column(length=100)
@@ -82,6 +81,7 @@ public class Story {
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy="story")
     @OrderBy("prioInStory")
+    @Cache(usage=READ_WRITE)
     private Set<Task> children = new HashSet<Task>();
 
     @JoinColumn(name="themeId")
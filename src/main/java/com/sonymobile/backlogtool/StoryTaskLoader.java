@@ -0,0 +1,129 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+/**
+ * Loads the stories of the story-task view with a fixed number of queries.
+ * Fetch joining the tasks returns one row per task, and themes, epics and
+ * attribute options are then read one at a time. Instead, everything a story
+ * refers to is read up front, then the stories themselves, and finally their
+ * tasks in batches.
+ */
+public final class StoryTaskLoader {
+
+    /** Max number of stories to read tasks for in one query. */
+    private static final int BATCH_SIZE = 500;
+
+    private StoryTaskLoader() {
+    }
+
+    /**
+     * Runs the story queries and returns the stories with their tasks set.
+     * The returned stories are detached from the session.
+     * @param areaName the area the stories belong to
+     * @param session hibernate session
+     * @param storyQueries queries selecting stories in the area, without any fetch joins
+     * @return the stories of all queries, in the order of the queries
+     */
+    public static List<Story> load(String areaName, Session session, Query... storyQueries) {
+        //Attribute options of the area, shared by all stories and tasks
+        Object[] attributeIds = (Object[]) session.createQuery("select a1.id, a2.id, a3.id, a4.id "
+                + "from Area ar "
+                + "left join ar.storyAttr1 a1 left join ar.storyAttr2 a2 "
+                + "left join ar.storyAttr3 a3 left join ar.taskAttr1 a4 "
+                + "where ar.name = ?")
+                .setParameter(0, areaName)
+                .setCacheable(true)
+                .uniqueResult();
+        if (attributeIds != null) {
+            List<Integer> ids = new ArrayList<Integer>();
+            for (Object id : attributeIds) {
+                if (id != null) {
+                    ids.add((Integer) id);
+                }
+            }
+            if (!ids.isEmpty()) {
+                session.createQuery("select o from Attribute a join a.options o where a.id in (:ids)")
+                        .setParameterList("ids", ids)
+                        .list();
+            }
+        }
+
+        //Themes and epics referenced by the stories
+        session.createQuery("from Theme where id in "
+                + "(select s.theme.id from Story s where s.area.name = :area) "
+                + "or id in (select s.epic.theme.id from Story s where s.area.name = :area)")
+                .setParameter("area", areaName)
+                .list();
+        session.createQuery("from Epic where id in "
+                + "(select s.epic.id from Story s where s.area.name = :area)")
+                .setParameter("area", areaName)
+                .list();
+
+        List<Story> stories = new ArrayList<Story>();
+        for (Query storyQuery : storyQueries) {
+            stories.addAll(Util.castList(Story.class, storyQuery.list()));
+        }
+
+        Map<Integer, Set<Task>> tasksByStory = new HashMap<Integer, Set<Task>>();
+        for (int from = 0; from < stories.size(); from += BATCH_SIZE) {
+            List<Integer> storyIds = new ArrayList<Integer>();
+            for (Story story : stories.subList(from, Math.min(from + BATCH_SIZE, stories.size()))) {
+                storyIds.add(story.getId());
+            }
+            Query taskQuery = session.createQuery("from Task where story.id in (:ids) order by prioInStory");
+            taskQuery.setParameterList("ids", storyIds);
+            for (Task task : Util.castList(Task.class, taskQuery.list())) {
+                Set<Task> tasks = tasksByStory.get(task.getParentId());
+                if (tasks == null) {
+                    tasks = new LinkedHashSet<Task>();
+                    tasksByStory.put(task.getParentId(), tasks);
+                }
+                tasks.add(task);
+            }
+        }
+
+        for (Story story : stories) {
+            //Detach the story so that replacing its task set isn't seen as a change
+            session.evict(story);
+            Set<Task> tasks = tasksByStory.get(story.getId());
+            if (tasks == null) {
+                tasks = new LinkedHashSet<Task>();
+            }
+            story.setChildren(tasks);
+        }
+        return stories;
+    }
+
+}
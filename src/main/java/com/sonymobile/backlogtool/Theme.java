@@ -37,7 +37,6 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
@@ -59,12 +58,12 @@ import org.hibernate.annotations.Cache;
 @Cache(usage=READ_WRITE)
 @Entity
 @Table(name="Themes")
-public class Theme {
+public class Theme implements Ranked {
     
     public static final int DESCRIPTION_LENGTH = 100000;
 
     @Id
-    @GeneratedValue(strategy=GenerationType.SEQUENCE)
+    @GeneratedValue(generator="pooledSequence")
     private int id;
 
     @Column(length=100)
@@ -84,6 +83,7 @@ public class Theme {
 
     @OneToMany(fetch = FetchType.LAZY, mappedBy="theme")
     @OrderBy("prioInTheme")
+    @Cache(usage=READ_WRITE)
     private Set<Epic> children = new HashSet<Epic>();
 
     public int getId() {
@@ -0,0 +1,179 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Lets all code that runs for a request share one Hibernate session, e.g. the
+ * permission check, {@link Util#getArea(String, SessionFactory)} and the
+ * handler itself, so that a request never holds more than one connection from
+ * the pool at a time.
+ * <p>
+ * Code that used to open its own session calls
+ * {@link #openSession(SessionFactory)} instead and uses the session as before.
+ * Closing it only clears it, so that the entities are detached like they
+ * were when the session was really closed. The session is closed by
+ * {@link Interceptor} when the request is completed. A new session is opened
+ * as before when the shared one is already in use, or when no request is
+ * handled by the current thread, e.g. in background jobs.
+ */
+public final class UnitOfWork {
+
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+    private final SessionFactory sessionFactory;
+    private Session session;
+    private boolean inUse;
+
+    private UnitOfWork(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Starts a unit of work for the current thread. The session is opened the
+     * first time it is needed.
+     * @param sessionFactory hibernate session factory
+     */
+    public static void begin(SessionFactory sessionFactory) {
+        end();
+        current.set(new UnitOfWork(sessionFactory));
+    }
+
+    /**
+     * Ends the unit of work of the current thread and closes its session.
+     */
+    public static void end() {
+        UnitOfWork unitOfWork = current.get();
+        current.remove();
+        if (unitOfWork != null && unitOfWork.session != null && unitOfWork.session.isOpen()) {
+            unitOfWork.session.close();
+        }
+    }
+
+    /**
+     * Returns the session of the current unit of work, or a new session if
+     * there is none or if it is already in use. The returned session must be
+     * closed as usual.
+     * @param sessionFactory hibernate session factory
+     * @return the session
+     */
+    public static Session openSession(SessionFactory sessionFactory) {
+        UnitOfWork unitOfWork = current.get();
+        if (unitOfWork == null || unitOfWork.inUse || unitOfWork.sessionFactory != sessionFactory) {
+            return sessionFactory.openSession();
+        }
+        if (unitOfWork.session == null || !unitOfWork.session.isOpen()) {
+            unitOfWork.session = sessionFactory.openSession();
+        }
+        unitOfWork.inUse = true;
+        return unitOfWork.borrow();
+    }
+
+    /**
+     * @return a proxy for the session that gives the session back instead
+     * of closing it
+     */
+    private Session borrow() {
+        final Session target = session;
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean closed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
+                    if (!closed) {
+                        closed = true;
+                        if (target.getTransaction().isActive()) {
+                            target.getTransaction().rollback();
+                        }
+                        target.clear();
+                        inUse = false;
+                    }
+                    return null;
+                }
+                if (method.getName().equals("isOpen") && method.getParameterTypes().length == 0) {
+                    return !closed && target.isOpen();
+                }
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(),
+                getPublicInterfaces(target.getClass()), handler);
+    }
+
+    private static Class<?>[] getPublicInterfaces(Class<?> clazz) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        interfaces.add(Session.class);
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                if (Modifier.isPublic(i.getModifiers())) {
+                    interfaces.add(i);
+                }
+            }
+        }
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    /**
+     * Runs each request handled by the dispatcher servlet in a unit of work.
+     */
+    public static class Interceptor extends HandlerInterceptorAdapter {
+
+        @Autowired
+        private SessionFactory sessionFactory;
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+                Object handler) throws Exception {
+            begin(sessionFactory);
+            return true;
+        }
+
+        @Override
+        public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+                Object handler, Exception ex) throws Exception {
+            end();
+        }
+    }
+
+}
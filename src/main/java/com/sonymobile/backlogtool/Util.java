@@ -28,12 +28,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import org.hibernate.FetchMode;
 import org.hibernate.Query;
 import org.hibernate.Session; 
 import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
-import org.hibernate.criterion.Restrictions;
 
 
 /**
@@ -57,101 +54,43 @@ public final class Util {
      * @param type backlog type to check rank on
      * @param area the area to look in
      * @param session hibernate session
-     * @return next available rank (the last1)
+     * @return next available rank (the last rank plus {@link RankAllocator#RANK_GAP})
      * @throws RuntimeException if invalid type was specified
      */
     public static int getNextPrio(BacklogType type, Area area, Session session) throws RuntimeException {
-        Query q = null;
-        switch (type) {
-        case STORY:
-            q=session.createQuery("from Story where area like ? and archived=false");
-            break;
-        case EPIC:
-            q=session.createQuery("from Epic where area like ? and archived=false");
-            break;
-        case THEME: 
-            q=session.createQuery("from Theme where area like ? and archived=false");
-            break;
-        default:
-            throw new RuntimeException("Invalid type specified");
-        }
-        q.setParameter(0, area);
-        return q.list().size() + 1;
+        return new RankAllocator(session).next(type, area);
     }
     
     /**
-     * Rebuilds the rank ordering for a given backlog type
-     * (in case there are missing numbers).
+     * Rebuilds the rank ordering for a given backlog type, spacing the ranks
+     * {@link RankAllocator#RANK_GAP} apart. Used when there is no free rank
+     * left between two items.
      * @param type backlog type to check rank on
      * @param area the area to look in
      * @param session hibernate session
      * @throws RuntimeException if invalid type was specified
      */
     public static void rebuildRanks(BacklogType type, Area area, Session session) throws RuntimeException {
-        Query q = null;
-        int counter = 1;
-        switch (type) {
-        case STORY:
-            q=session.createQuery("from Story where area like ? and archived=false order by prio");
-            q.setParameter(0, area);
-            for (Story story : Util.castList(Story.class, q.list())) {
-                story.setPrio(counter++);
-            }
-            break;
-        case EPIC:
-            q=session.createQuery("from Epic where area like ? and archived=false order by prio");
-            q.setParameter(0, area);
-            for (Epic epic : Util.castList(Epic.class, q.list())) {
-                epic.setPrio(counter++);
-            }
-            break;
-        case THEME: 
-            q=session.createQuery("from Theme where area like ? and archived=false order by prio");
-            q.setParameter(0, area);
-            for (Theme theme : Util.castList(Theme.class, q.list())) {
-                theme.setPrio(counter++);
-            }
-            break;
-        default:
-            throw new RuntimeException("Invalid type specified");
+        Query q = session.createQuery("from " + RankAllocator.getEntityName(type)
+                + " where area = ? and archived=false order by prio");
+        q.setParameter(0, area);
+        int rank = 0;
+        for (Ranked item : Util.castList(Ranked.class, q.list())) {
+            rank += RankAllocator.RANK_GAP;
+            item.setPrio(rank);
         }
-        
     }
     
     /**
-     * Returns the area with argument name if it exists.
+     * Returns the area with argument name if it exists, with its attributes,
+     * attribute options, admins and editors. The area is shared with other
+     * requests through {@link AreaMetadataCache} and must not be changed.
      * @param areaName Area name to search for
      * @param sessionFactory hibernate session factory
      * @return area
      */
     public static Area getArea(String areaName, SessionFactory sessionFactory) {
-        Area area = null;
-
-        Session session = sessionFactory.openSession();
-        Transaction tx = null;
-        try {
-            tx = session.beginTransaction();
-            
-            area = (Area) session.createCriteria(Area.class)
-                    .add( Restrictions.like("name", areaName) )
-                    .setFetchMode("storyAttr1", FetchMode.JOIN)
-                    .setFetchMode("storyAttr2", FetchMode.JOIN)
-                    .setFetchMode("storyAttr3", FetchMode.JOIN)
-                    .setFetchMode("taskAttr1", FetchMode.JOIN)
-                    .setFetchMode("editors", FetchMode.JOIN)
-                    .setFetchMode("admins", FetchMode.JOIN)
-                    .uniqueResult();
-
-            tx.commit();
-        } catch (Exception e) {
-            e.printStackTrace();
-            if (tx != null) {
-                tx.rollback();
-            }
-        } finally {
-            session.close();
-        }
-        return area;
+        return AreaMetadataCache.get(areaName, sessionFactory);
     }
 
     /**
@@ -23,6 +23,11 @@
  */
 package com.sonymobile.backlogtool.dbupdate;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
 import org.hibernate.SessionFactory;
 
 /**
@@ -53,6 +58,27 @@ public abstract class DbUpdater implements Comparable<DbUpdater> {
      */
     public abstract boolean update(SessionFactory sessionFactory);
     
+    /**
+     * Reads the hibernate dialect from backlogtool.properties.
+     * @return the dialect, or an empty string if it couldn't be read
+     */
+    protected static String getDialect() {
+        Properties propertiesFile = new Properties();
+        try {
+            String backlogconf = System.getProperty("catalina.home") + File.separator + "conf/backlogtool.properties";
+            InputStream input = new FileInputStream(backlogconf);
+            try {
+                propertiesFile.load(input);
+            } finally {
+                input.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        String dialect = (String) propertiesFile.get("db.hibernate.dialect");
+        return dialect != null ? dialect : "";
+    }
+
     @Override
     public int compareTo(DbUpdater o) {
         return getFromVersion()-o.getFromVersion();
@@ -0,0 +1,90 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool.dbupdate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Adds indexes on the attribute option columns of stories and tasks, which
+ * are used when attribute options are removed from an area.
+ */
+@DbUpdate
+public class UpdateVersion2_3 extends DbUpdater {
+
+    private static final int FROM_VERSION = 2;
+
+    private static final String[] INDEX_QUERIES = {
+        "CREATE INDEX stories_storyattr1_idx ON stories (storyAttr1_id)",
+        "CREATE INDEX stories_storyattr2_idx ON stories (storyAttr2_id)",
+        "CREATE INDEX stories_storyattr3_idx ON stories (storyAttr3_id)",
+        "CREATE INDEX tasks_taskattr1_idx ON tasks (taskAttr1_id)",
+    };
+
+    @Override
+    public int getFromVersion() {
+        return FROM_VERSION;
+    }
+
+    @Override
+    public boolean update(SessionFactory sessionFactory) {
+        boolean success = true;
+        final String dialect = getDialect();
+
+        Transaction tx = null;
+        Session session = sessionFactory.openSession();
+        try {
+            tx = session.beginTransaction();
+
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    if (!dialect.contains("PostgreSQL") && !dialect.contains("HSQL")) {
+                        throw new SQLException("Unable to find a matching query for the specified database type");
+                    }
+                    for (String indexQuery : INDEX_QUERIES) {
+                        connection.prepareStatement(indexQuery).executeUpdate();
+                    }
+                }
+            });
+            tx.commit();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            success = false;
+        } finally {
+            session.close();
+        }
+        return success;
+    }
+
+}
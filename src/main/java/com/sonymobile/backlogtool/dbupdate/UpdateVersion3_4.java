@@ -0,0 +1,124 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool.dbupdate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Adds indexes for the queries that read the backlogs. Apart from the primary
+ * keys, the schema created by hibernate has no indexes.
+ */
+@DbUpdate
+public class UpdateVersion3_4 extends DbUpdater {
+
+    private static final int FROM_VERSION = 3;
+
+    /** Indexes that both PostgreSQL and HSQLDB support. */
+    private static final String[] INDEX_QUERIES = {
+        //Backlogs in rank order and the last rank of an area:
+        //from Story where area = ? and archived = false order by prio
+        //select max(prio) from Story where area = ? and archived = false
+        "CREATE INDEX stories_area_archived_prio_idx ON stories (area_name, archived, prio)",
+        "CREATE INDEX epics_area_archived_prio_idx ON epics (area_name, archived, prio)",
+        "CREATE INDEX themes_area_archived_prio_idx ON themes (area_name, archived, prio)",
+
+        //Archived items, newest first:
+        //from Story where area = ? and archived = true order by dateArchived desc, id desc
+        "CREATE INDEX stories_area_archived_date_idx ON stories (area_name, archived, dateArchived)",
+        "CREATE INDEX epics_area_archived_date_idx ON epics (area_name, archived, dateArchived)",
+        "CREATE INDEX themes_area_archived_date_idx ON themes (area_name, archived, dateArchived)",
+
+        //Tasks of stories: from Task where story.id in (:ids) order by prioInStory
+        "CREATE INDEX tasks_story_prio_idx ON tasks (storyId, prioInStory)",
+
+        //Epics of themes: from Epic where theme in (:parents) order by prioInTheme
+        "CREATE INDEX epics_theme_idx ON epics (themeId)",
+
+        //Stories of epics: from Story where epic in (:parents) order by prioInEpic
+        "CREATE INDEX stories_epic_idx ON stories (epicId)",
+    };
+
+    /** Expression indexes, which only PostgreSQL supports. */
+    private static final String[] POSTGRESQL_INDEX_QUERIES = {
+        //Themes and epics by title, used by JSONController.getTheme and getEpic
+        //when looking up the theme or epic of a story. Autocomplete doesn't
+        //use them, it is served from AutocompleteIndex:
+        //from Theme where area = ? and lower(title) = ?
+        "CREATE INDEX themes_area_lower_title_idx ON themes (area_name, lower(title))",
+        "CREATE INDEX epics_area_lower_title_idx ON epics (area_name, lower(title))",
+    };
+
+    @Override
+    public int getFromVersion() {
+        return FROM_VERSION;
+    }
+
+    @Override
+    public boolean update(SessionFactory sessionFactory) {
+        boolean success = true;
+        final String dialect = getDialect();
+
+        Transaction tx = null;
+        Session session = sessionFactory.openSession();
+        try {
+            tx = session.beginTransaction();
+
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    List<String> indexQueries = new ArrayList<String>(Arrays.asList(INDEX_QUERIES));
+                    if (dialect.contains("PostgreSQL")) {
+                        indexQueries.addAll(Arrays.asList(POSTGRESQL_INDEX_QUERIES));
+                    } else if (!dialect.contains("HSQL")) {
+                        throw new SQLException("Unable to find a matching query for the specified database type");
+                    }
+                    for (String indexQuery : indexQueries) {
+                        connection.prepareStatement(indexQuery).executeUpdate();
+                    }
+                }
+            });
+            tx.commit();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            success = false;
+        } finally {
+            session.close();
+        }
+        return success;
+    }
+
+}
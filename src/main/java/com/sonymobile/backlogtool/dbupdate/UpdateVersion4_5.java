@@ -0,0 +1,143 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool.dbupdate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+
+/**
+ * Makes hibernate_sequence increment by 50, which is what the pooled id
+ * generator in com.sonymobile.backlogtool.package-info expects.
+ * <p>
+ * The pooled generator treats each value read from the sequence as the upper
+ * end of a range and hands out the 50 ids below it. The sequence is therefore
+ * restarted 50 above the highest id in use, or above its own next value if
+ * that is higher. HSQLDB 1.8 can't change the increment of a sequence, so
+ * there the sequence is dropped and created again.
+ */
+@DbUpdate
+public class UpdateVersion4_5 extends DbUpdater {
+
+    private static final int FROM_VERSION = 4;
+
+    private static final int INCREMENT_SIZE = 50;
+
+    /** The tables whose ids are taken from hibernate_sequence. */
+    private static final String[] TABLES = {
+        "Stories", "Epics", "Themes", "Tasks", "Attributes", "AttributeOptions",
+    };
+
+    private static final String POSTGRESQL_NEXT_VALUE = "SELECT nextval('hibernate_sequence')";
+
+    private static final String[] POSTGRESQL_QUERIES = {
+        "ALTER SEQUENCE hibernate_sequence INCREMENT BY %d RESTART WITH %d",
+    };
+
+    private static final String HSQL_NEXT_VALUE = "CALL NEXT VALUE FOR hibernate_sequence";
+
+    private static final String[] HSQL_QUERIES = {
+        "DROP SEQUENCE hibernate_sequence",
+        "CREATE SEQUENCE hibernate_sequence START WITH %2$d INCREMENT BY %1$d",
+    };
+
+    @Override
+    public int getFromVersion() {
+        return FROM_VERSION;
+    }
+
+    @Override
+    public boolean update(SessionFactory sessionFactory) {
+        boolean success = true;
+        final String dialect = getDialect();
+
+        Transaction tx = null;
+        Session session = sessionFactory.openSession();
+        try {
+            tx = session.beginTransaction();
+
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    String nextValueQuery = null;
+                    String[] queries = null;
+                    if (dialect.contains("PostgreSQL")) {
+                        nextValueQuery = POSTGRESQL_NEXT_VALUE;
+                        queries = POSTGRESQL_QUERIES;
+                    } else if (dialect.contains("HSQL")) {
+                        nextValueQuery = HSQL_NEXT_VALUE;
+                        queries = HSQL_QUERIES;
+                    } else {
+                        throw new SQLException("Unable to find a matching query for the specified database type");
+                    }
+                    long firstFreeId = readLong(connection, nextValueQuery);
+                    for (String table : TABLES) {
+                        long maxId = readLong(connection, "SELECT max(id) FROM " + table);
+                        firstFreeId = Math.max(firstFreeId, maxId + 1);
+                    }
+                    long startWith = firstFreeId + INCREMENT_SIZE;
+                    for (String query : queries) {
+                        connection.prepareStatement(String.format(query, INCREMENT_SIZE, startWith)).execute();
+                    }
+                }
+            });
+            tx.commit();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            success = false;
+        } finally {
+            session.close();
+        }
+        return success;
+    }
+
+    /**
+     * Runs a query that returns a single number.
+     * @param connection the connection to use
+     * @param query the query to run
+     * @return the number, or 0 if the query returned null
+     * @throws SQLException if the query failed
+     */
+    private static long readLong(Connection connection, String query) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query);
+        try {
+            ResultSet result = statement.executeQuery();
+            result.next();
+            return result.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool.dbupdate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+
+import com.sonymobile.backlogtool.RankAllocator;
+
+/**
+ * Spreads the ranks of the existing stories, epics and themes
+ * {@link RankAllocator#RANK_GAP} apart. Before, ranks were numbered 1..n, so
+ * the first move in each area would otherwise find no free rank and renumber
+ * the whole area. The ranks are multiplied with the gap, which keeps their
+ * order. If that would overflow, the items are numbered again area by area.
+ */
+@DbUpdate
+public class UpdateVersion5_6 extends DbUpdater {
+
+    private static final int FROM_VERSION = 5;
+
+    private static final String[] TABLES = {"stories", "epics", "themes"};
+
+    @Override
+    public int getFromVersion() {
+        return FROM_VERSION;
+    }
+
+    @Override
+    public boolean update(SessionFactory sessionFactory) {
+        boolean success = true;
+
+        Transaction tx = null;
+        Session session = sessionFactory.openSession();
+        try {
+            tx = session.beginTransaction();
+
+            session.doWork(new Work() {
+                @Override
+                public void execute(Connection connection) throws SQLException {
+                    for (String table : TABLES) {
+                        if (getMaxRank(connection, table) <= Integer.MAX_VALUE / RankAllocator.RANK_GAP) {
+                            connection.prepareStatement("UPDATE " + table + " SET prio = prio * "
+                                    + RankAllocator.RANK_GAP + " WHERE archived = false").executeUpdate();
+                        } else {
+                            renumber(connection, table);
+                        }
+                    }
+                }
+            });
+            tx.commit();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+            success = false;
+        } finally {
+            session.close();
+        }
+        return success;
+    }
+
+    private static long getMaxRank(Connection connection, String table) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                "SELECT max(abs(prio)) FROM " + table + " WHERE archived = false");
+        try {
+            ResultSet result = statement.executeQuery();
+            result.next();
+            return result.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Gives the items of each area the ranks RANK_GAP, 2 * RANK_GAP and so
+     * on, in their current order.
+     */
+    private static void renumber(Connection connection, String table) throws SQLException {
+        PreparedStatement select = connection.prepareStatement("SELECT id, area_name FROM " + table
+                + " WHERE archived = false ORDER BY area_name, prio, id");
+        PreparedStatement update = connection.prepareStatement("UPDATE " + table + " SET prio = ? WHERE id = ?");
+        try {
+            ResultSet result = select.executeQuery();
+            String areaName = null;
+            int rank = 0;
+            while (result.next()) {
+                String itemAreaName = result.getString(2);
+                if (itemAreaName == null ? areaName != null : !itemAreaName.equals(areaName)) {
+                    areaName = itemAreaName;
+                    rank = 0;
+                }
+                rank += RankAllocator.RANK_GAP;
+                update.setInt(1, rank);
+                update.setInt(2, result.getInt(1));
+                update.addBatch();
+            }
+            update.executeBatch();
+        } finally {
+            select.close();
+            update.close();
+        }
+    }
+
+}
@@ -30,6 +30,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 
 import com.sonymobile.backlogtool.Area;
+import com.sonymobile.backlogtool.AreaDeleter;
+import com.sonymobile.backlogtool.UnitOfWork;
 
 /**
  * This class handles all admin permission checks.
@@ -39,22 +41,39 @@ import com.sonymobile.backlogtool.Area;
  */
 public class AdminPermission implements Permission {
 
+    private static final String PERMISSION = "isAdmin";
+
     @Autowired
     SessionFactory sessionFactory;
 
+    @Autowired
+    PermissionCache permissionCache;
+
+    @Autowired
+    AreaDeleter areaDeleter;
+
     @Override
     /**
      * Checks if authenticated user is allowed to edit targetDomain area.
+     * Recent decisions are taken from the permission cache.
      */
     public boolean isAllowed(Authentication authentication, Object targetDomainObject) {
         if (authentication == null) {
             return false;
         }
         String areaName = targetDomainObject.toString();
+        if (areaDeleter.isDeleting(areaName)) {
+            return false;
+        }
         String username = authentication.getName();
+        Boolean cachedPermission = permissionCache.get(PERMISSION, username, areaName);
+        if (cachedPermission != null) {
+            return cachedPermission;
+        }
         boolean hasPermission = false;
+        long generation = permissionCache.getGeneration(areaName);
 
-        Session session = sessionFactory.openSession();
+        Session session = UnitOfWork.openSession(sessionFactory);
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
@@ -75,6 +94,7 @@ public class AdminPermission implements Permission {
                         + " area: " + areaName);
             }
             tx.commit();
+            permissionCache.put(PERMISSION, username, areaName, hasPermission, generation);
         } catch (Exception e) {
             e.printStackTrace();
             if (tx != null) {
@@ -28,7 +28,6 @@ import java.util.Map;
 
 import org.springframework.security.access.PermissionEvaluator;
 import org.springframework.security.core.Authentication;
-import org.springframework.transaction.annotation.Transactional;
 
 /**
  * This class evaluates permission checks and delegates to
@@ -43,7 +42,6 @@ public class BacklogPermissionEvaluator implements PermissionEvaluator {
     }
 
     @Override
-    @Transactional
     /**
      * Checks if authenticated user has the required permission for an object.
      */
@@ -0,0 +1,73 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool.permission;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+
+import com.sonymobile.backlogtool.UnitOfWork;
+
+/**
+ * This class handles the master admin permission checks, for what isn't
+ * tied to a single area. The target domain object is ignored.
+ */
+public class MasterAdminPermission implements Permission {
+
+    @Autowired
+    SessionFactory sessionFactory;
+
+    @Override
+    /**
+     * Checks if authenticated user is a master admin.
+     */
+    public boolean isAllowed(Authentication authentication, Object targetDomainObject) {
+        if (authentication == null) {
+            return false;
+        }
+        boolean hasPermission = false;
+
+        Session session = UnitOfWork.openSession(sessionFactory);
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+
+            User user = (User) session.get(User.class, authentication.getName());
+            hasPermission = user != null && user.isMasterAdmin();
+            tx.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (tx != null) {
+                tx.rollback();
+            }
+        } finally {
+            session.close();
+        }
+
+        return hasPermission;
+    }
+
+}
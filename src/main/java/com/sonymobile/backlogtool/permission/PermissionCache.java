@@ -0,0 +1,211 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool.permission;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers permission decisions per user and area for a short while, so that
+ * the database doesn't have to be asked on every request. Changes to the
+ * admins and editors of an area must invalidate the area.
+ * <p>
+ * A decision is only remembered if the area wasn't invalidated while it was
+ * read from the database. Callers read {@link #getGeneration(String)} before
+ * they read the area and pass it to {@link #put}.
+ */
+@Component
+public class PermissionCache {
+
+    /** How long a decision is remembered, in milliseconds. */
+    private static final long TIME_TO_LIVE = 30 * 1000;
+
+    /** Max number of decisions remembered. */
+    private static final int MAX_DECISIONS = 10000;
+
+    private final ConcurrentMap<Key, Decision> decisions = new ConcurrentHashMap<Key, Decision>();
+
+    /** Maps an area name to the number of times it has been invalidated. */
+    private final Map<String, Long> generations = new HashMap<String, Long>();
+
+    /** Number of times all decisions have been invalidated. */
+    private long allGeneration = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param permission the permission, e.g. "isEditor"
+     * @param username the user
+     * @param areaName the area
+     * @return the remembered decision, or null if there is none
+     */
+    public Boolean get(String permission, String username, String areaName) {
+        Key key = new Key(permission, username, areaName);
+        Decision decision = decisions.get(key);
+        if (decision != null && decision.expires < System.currentTimeMillis()) {
+            decisions.remove(key, decision);
+            decision = null;
+        }
+        if (decision == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return decision.allowed;
+    }
+
+    /**
+     * @param areaName the area
+     * @return a number that changes every time the area is invalidated
+     */
+    public synchronized long getGeneration(String areaName) {
+        Long generation = generations.get(areaName);
+        return allGeneration + (generation != null ? generation : 0);
+    }
+
+    /**
+     * Remembers a decision, unless the area has been invalidated since the
+     * generation was read.
+     * @param permission the permission, e.g. "isEditor"
+     * @param username the user
+     * @param areaName the area
+     * @param allowed if the user has the permission
+     * @param generation the generation of the area before the decision was read
+     */
+    public synchronized void put(String permission, String username, String areaName, boolean allowed,
+            long generation) {
+        if (generation != getGeneration(areaName)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (decisions.size() >= MAX_DECISIONS) {
+            evict(now);
+        }
+        decisions.put(new Key(permission, username, areaName),
+                new Decision(allowed, now + TIME_TO_LIVE));
+    }
+
+    /**
+     * Removes the expired decisions, and if that isn't enough, removes
+     * decisions until there is room for a new one.
+     */
+    private void evict(long now) {
+        Iterator<Decision> it = decisions.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expires < now) {
+                it.remove();
+            }
+        }
+        it = decisions.values().iterator();
+        while (decisions.size() >= MAX_DECISIONS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Forgets all decisions for an area.
+     * @param areaName the area whose admins or editors were changed
+     */
+    public synchronized void invalidateArea(String areaName) {
+        Long generation = generations.get(areaName);
+        generations.put(areaName, generation != null ? generation + 1 : 1);
+        Iterator<Key> it = decisions.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().areaName.equals(areaName)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets all decisions, e.g. when the master admins were changed.
+     */
+    public synchronized void invalidateAll() {
+        allGeneration++;
+        decisions.clear();
+    }
+
+    /**
+     * @return number of decisions that were found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of decisions that had to be read from the database
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class Key {
+
+        private final String permission;
+        private final String username;
+        private final String areaName;
+
+        Key(String permission, String username, String areaName) {
+            this.permission = permission;
+            this.username = username;
+            this.areaName = areaName;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return permission.equals(other.permission) && username.equals(other.username)
+                    && areaName.equals(other.areaName);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * permission.hashCode() + username.hashCode()) * 31 + areaName.hashCode();
+        }
+    }
+
+    private static class Decision {
+
+        private final boolean allowed;
+        private final long expires;
+
+        Decision(boolean allowed, long expires) {
+            this.allowed = allowed;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -20,7 +20,7 @@ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
 LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
 OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.
---%><%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c"%><c:if test="${dataString != null}">${dataString}</c:if><c:if test="${dataString == null}">
+--%><%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c"%>
 <!DOCTYPE html>
 <html>
 <head>
@@ -56,9 +56,10 @@ p.error {
 
     <p>A comma-separated list with data from Backlog Tool can be
         retrieved by passing url-parameters to this page:</p>
-    <p class="link-box">?fields={field1},{field2},{field3}&archived={true|false}</p>
+    <p class="link-box">?fields={field1},{field2},{field3}&archived={true|false}&area={area name}</p>
     <p>
-        where <i>archived</i> is optional
+        where <i>archived</i> and <i>area</i> are optional. The data is gzipped
+        if the client accepts gzip encoding.
     </p>
     <p>Available fields are:
         <ul>
@@ -83,5 +84,4 @@ p.error {
         <a href="?fields=title,area,dateadded,datearchived&archived=true">?fields=title,area,dateadded,datearchived&archived=true</a>
     </p>
 </body>
-</html>
-</c:if>
\ No newline at end of file
+</html>
\ No newline at end of file
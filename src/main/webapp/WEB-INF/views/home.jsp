@@ -88,6 +88,34 @@ THE SOFTWARE.
                 $("#area-name").attr('disabled', 'disabled');
             }
     
+            /**
+             * Polls the status of an area deletion until it has finished
+             */
+            var waitForAreaDeletion = function(areaName) {
+                $.ajax({
+                    url : "json/deleteAreaStatus/" + areaName,
+                    type : 'GET',
+                    dataType : 'json',
+                    success : function(status) {
+                        if (status == null || status.state == "done") {
+                            window.location.href = "${pageContext.request.contextPath}";
+                        } else if (status.state == "failed") {
+                            alert("The area could not be deleted");
+                            location.reload();
+                        } else {
+                            document.title = 'Deleting area (' + status.deleted + ' of ' + status.total + ' items)';
+                            setTimeout(function() {
+                                waitForAreaDeletion(areaName);
+                            }, 1000);
+                        }
+                    },
+                    error : function(request, status, error) {
+                        alert(error);
+                        location.reload();
+                    }
+                });
+            };
+
             var deleteArea = function(event) {
                 $('#delete-area').dialog({
                     resizable : false,
@@ -102,7 +130,7 @@ THE SOFTWARE.
                                 data : JSON.stringify(event.target.id),
                                 contentType : "application/json; charset=utf-8",
                                 success : function(data) {
-                                    window.location.href = "${pageContext.request.contextPath}";
+                                    waitForAreaDeletion(event.target.id);
                                 },
                                 error : function(request, status, error) {
                                     alert(error);
@@ -50,6 +50,7 @@ THE SOFTWARE.
         var areaName = "${area.name}";
         var view = "${view}";
         var archivedView = "${archivedView}" == "true" ? true : false;
+        var revision = ${revision};
         var disableEditsBoolean = "${disableEdits}" == "true" ? true : false;
         var parentsMap = ${jsonDataNonArchivedThemes};
         var area = ${jsonAreaData};
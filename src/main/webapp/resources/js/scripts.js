@@ -351,6 +351,51 @@ $(document).ready(function () {
     };
 
     var socket;
+
+    /**
+     * Set when a push message is received, and cleared on reconnect
+     */
+    var messageReceived = false;
+
+    /**
+     * Process the push messages in jsonArray that are intended for this view.
+     * Revision messages only update the revision of the last received message.
+     */
+    var processPushMessages = function(jsonArray) {
+        for (var i=0; i<jsonArray.length; i++) {
+            if(jsonArray[i].type == "Revision") {
+                revision = Math.max(revision, jsonArray[i].data);
+            } else if(jsonArray[i].views.indexOf(view) > -1 || jsonArray[i].views == "*") {
+                processPushData(jsonArray[i]);
+            }
+        }
+        addZebraStripesToParents();
+    };
+
+    /**
+     * Read the push messages that were sent while the push connection was
+     * lost. If they aren't available anymore the page is reloaded.
+     */
+    var readMissedChanges = function() {
+        if(archivedView == true) {
+            return;
+        }
+        $.ajax({
+            url : "../json/changes/" + areaName,
+            type : 'GET',
+            dataType : 'json',
+            data : {since: revision},
+            success : function(result) {
+                if(result.resync) {
+                    window.location.reload();
+                    return;
+                }
+                processPushMessages(result.changes);
+                revision = Math.max(revision, result.revision);
+            }
+        });
+    };
+
     /**
      * Registers for push-notifications for the current area
      */
@@ -364,6 +409,7 @@ $(document).ready(function () {
 //      request.logLevel = 'debug';
 
         request.onMessage = function(response) {
+            messageReceived = true;
             if(archivedView == false) {
                 var data = response.responseBody;
 
@@ -378,32 +424,38 @@ $(document).ready(function () {
                     alert("Error: Invalid JSON-message from the server, check console log " + error);
                 }
 
-                for (var i=0; i<jsonObj.length; i++) {
-                    if(jsonObj[i].views.indexOf(view) > -1 || jsonObj[i].views == "*") {
-                        processPushData(jsonObj[i]);
-                    }
-                }
-                addZebraStripesToParents();
+                processPushMessages(jsonObj);
             }
         };
 
+        //Changes may have been made between loading the page and connecting
+        request.onOpen = function(response) {
+            if(request.logLevel == "debug") {
+                window.console && console.log("onOpen: " + response.responseBody);
+            }
+            readMissedChanges();
+        };
+
+        //Long-polling reconnects after every message, that doesn't mean anything was missed
+        request.onReconnect = function(req, response) {
+            if(request.logLevel == "debug") {
+                window.console && console.log("onReconnect: " + response.responseBody);
+            }
+            if(req.transport != "long-polling" || !messageReceived) {
+                readMissedChanges();
+            }
+            messageReceived = false;
+        };
+
         if(request.logLevel == "debug") {
             request.onError = function(response) {
                 window.console && console.log("No json-data in push-message");
             };
 
-            request.onOpen = function(response) {
-                window.console && console.log("onOpen: " + response.responseBody);
-            };
-
             request.onClose = function(response) {
                 window.console && console.log("onClose: " + response.responseBody);
             };
 
-            request.onReconnect = function(response) {
-                window.console && console.log("onReconnect: " + response.responseBody);
-            };
-
             request.onTransportFailure = function(errorMsg, response) {
                 window.console && console.log("onTransportFailure: " + errorMsg + " || " + response.responseBody);
             };
@@ -452,6 +504,8 @@ $(document).ready(function () {
                 for(var i = 0; i < childData.length; i++) {
                     updateEpicLi(childData[i], !allExpanded);
                 }
+            } else if(jsonObj.type == "Delta") {
+                applyDelta(data);
             } else if(jsonObj.type == "Delete") {
                 removeItem($('li#' + data));
             } else if(jsonObj.type == "childMove" || jsonObj.type == "parentMove") {
@@ -494,6 +548,51 @@ $(document).ready(function () {
         }
     };
 
+    /**
+     * The parent type shown in each view, used to find items by id
+     */
+    var parentTypeInView = {"story-task": "Story", "epic-story": "Epic", "theme-epic": "Theme"};
+
+    /**
+     * The version of the last delta applied to each item
+     */
+    var deltaVersions = {};
+
+    /**
+     * Apply a delta-push-event, which only contains the changed properties
+     * of an item. Items that are not shown in this view are ignored.
+     */
+    var applyDelta = function(delta) {
+        var key = delta.type + delta.id;
+        if (deltaVersions[key] >= delta.version) {
+            return;
+        }
+        deltaVersions[key] = delta.version;
+
+        var item = null;
+        if (parentTypeInView[view] == delta.type) {
+            item = getParent(delta.id);
+        } else {
+            item = getChild(delta.id);
+        }
+        if (item == null) {
+            return;
+        }
+        var updatedItem = $.extend({}, item, delta.changes);
+        delete updatedItem.lastItem; //Position is not changed by a delta
+
+        if(delta.type == "Story") {
+            updateStoryLi(updatedItem, !allExpanded);
+            updateTypeMarkWidth();
+        } else if(delta.type == "Task") {
+            updateTaskLi(updatedItem);
+        } else if(delta.type == "Epic") {
+            updateEpicLi(updatedItem, !allExpanded);
+        } else if(delta.type == "Theme") {
+            updateThemeLi(updatedItem, !allExpanded);
+        }
+    };
+
     /**
      * Process and handle a move-push-event
      */
@@ -2739,6 +2838,11 @@ $(document).ready(function () {
         } else return '';
     };
 
+    /**
+     * Maps a page number to the cursor returned with the page before it
+     */
+    var archivedCursors = {};
+
     /**
      * Populates the archived-list with backlog items belonging
      * to argument page number.
@@ -2758,6 +2862,11 @@ $(document).ready(function () {
         if (isFilterActive()) {
             url += "&ids=" + $("#filter").val();
         }
+        if (pageNbr == 1) {
+            archivedCursors = {};
+        } else if (typeof archivedCursors[pageNbr] !== "undefined") {
+            url += "&cursor=" + encodeURIComponent(archivedCursors[pageNbr]);
+        }
         $.ajax({
             url: url,
             dataType: 'json',
@@ -2765,6 +2874,9 @@ $(document).ready(function () {
                 alert(error);
             },
             success: function (data) {
+                if (data.nextCursor != null) {
+                    archivedCursors[pageNbr + 1] = data.nextCursor;
+                }
                 $("#pagination").pagination({
                     pages: data.nbrOfPages,
                     currentPage: pageNbr,
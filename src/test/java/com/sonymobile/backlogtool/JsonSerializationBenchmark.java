@@ -0,0 +1,125 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of building one push message, with a new ObjectMapper
+ * per message (as before) and with the shared mappers in {@link JsonMappers}.
+ * Not run by the unit tests; start it with the main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonSerializationBenchmark {
+
+    private Story story;
+
+    @Setup
+    public void setUp() {
+        Theme theme = new Theme();
+        theme.setTitle("Theme");
+        Epic epic = new Epic();
+        epic.setTitle("Epic");
+        epic.setTheme(theme);
+
+        story = new Story();
+        story.setId(1);
+        story.setTitle("A story with a <b>title</b>");
+        story.setDescription("Description of the story");
+        story.setAdded(new Date());
+        story.setTheme(theme);
+        story.setEpic(epic);
+        Set<Task> tasks = new LinkedHashSet<Task>();
+        for (int i = 1; i <= 10; i++) {
+            Task task = new Task();
+            task.setId(100 + i);
+            task.setTitle("Task " + i);
+            task.setPrioInStory(i);
+            task.setStory(story);
+            tasks.add(task);
+        }
+        story.setChildren(tasks);
+    }
+
+    @Benchmark
+    public String newMapperPerMessage() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.getSerializationConfig().addMixInAnnotations(Story.class, ChildrenExcluder.class);
+        return mapper.writeValueAsString(message(story));
+    }
+
+    @Benchmark
+    public String sharedMapper() throws IOException {
+        return JsonMappers.withoutChildren(Story.class).writeValueAsString(message(story));
+    }
+
+    @Benchmark
+    public String newMapperPerMessageInclChildren() throws IOException {
+        return new ObjectMapper().writeValueAsString(message(story));
+    }
+
+    @Benchmark
+    public String sharedMapperInclChildren() throws IOException {
+        return JsonMappers.withChildren().writeValueAsString(message(story));
+    }
+
+    private static HashMap<String, Object> message(Object data) {
+        HashMap<String, Object> typeMapper = new HashMap<String, Object>();
+        typeMapper.put("type", "Story");
+        typeMapper.put("data", data);
+        typeMapper.put("views", JSONController.STORY_TASK_VIEW);
+        return typeMapper;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JsonSerializationBenchmark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestAutocompleteIndex extends TestCase {
+
+    private AutocompleteIndex.TitleIndex index;
+
+    @Override
+    protected void setUp() {
+        index = new AutocompleteIndex.TitleIndex();
+    }
+
+    public void testRanking() {
+        index.put(1, "Blogin");
+        index.put(2, "User login");
+        index.put(3, "Login page");
+        index.put(4, "Login");
+        index.put(5, "Logout");
+
+        assertEquals(Arrays.asList("Login", "Login page", "User login", "Blogin"),
+                index.find("login", null));
+    }
+
+    public void testWordMatchAfterContainsMatch() {
+        //The first occurrence is inside a word, the second starts a word
+        index.put(1, "Blogin and login");
+        index.put(2, "Blogins");
+
+        assertEquals(Arrays.asList("Blogin and login", "Blogins"), index.find("login", null));
+    }
+
+    public void testSameRankOrderedByLength() {
+        index.put(1, "Login to the admin page");
+        index.put(2, "Login page");
+
+        assertEquals(Arrays.asList("Login page", "Login to the admin page"), index.find("login", null));
+    }
+
+    public void testIgnoresCaseAndKeepsTitle() {
+        index.put(1, "Release Notes");
+
+        assertEquals(Collections.singletonList("Release Notes"), index.find("NOTES", null));
+    }
+
+    public void testShortTerm() {
+        index.put(1, "Login");
+        index.put(2, "Settings");
+
+        //Shorter than a trigram, all titles are searched
+        assertEquals(Collections.singletonList("Login"), index.find("lo", null));
+        assertEquals(Arrays.asList("Login", "Settings"), index.find("", null));
+    }
+
+    public void testAllTrigramsMustMatch() {
+        index.put(1, "abcxyz");
+
+        assertTrue(index.find("abcd", null).isEmpty());
+        assertTrue(index.find("qwe", null).isEmpty());
+    }
+
+    public void testMaxResults() {
+        for (int i = 0; i < AutocompleteIndex.MAX_RESULTS + 10; i++) {
+            index.put(i, "Story " + (100 + i));
+        }
+
+        List<String> result = index.find("story", null);
+        assertEquals(AutocompleteIndex.MAX_RESULTS, result.size());
+        assertEquals("Story 100", result.get(0));
+    }
+
+    public void testDuplicateTitles() {
+        index.put(1, "Login");
+        index.put(2, "Login");
+
+        assertEquals(Collections.singletonList("Login"), index.find("log", null));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), index.getIds("LOGIN"));
+    }
+
+    public void testAllowedIds() {
+        index.put(1, "Login page");
+        index.put(2, "Login");
+
+        assertEquals(Collections.singletonList("Login page"),
+                index.find("login", Collections.singleton(1)));
+    }
+
+    public void testPutReplacesTitle() {
+        index.put(1, "Login");
+        index.put(1, "Settings");
+
+        assertTrue(index.find("login", null).isEmpty());
+        assertEquals(Collections.singletonList("Settings"), index.find("set", null));
+    }
+
+    public void testRemove() {
+        index.put(1, "Login");
+        index.put(2, "Login page");
+        index.remove(1);
+        index.remove(3);
+
+        assertEquals(Collections.singletonList("Login page"), index.find("login", null));
+        assertTrue(index.getIds("Login").isEmpty());
+    }
+
+}
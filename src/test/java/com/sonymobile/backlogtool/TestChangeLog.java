@@ -0,0 +1,124 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestChangeLog extends TestCase {
+
+    /** The logs are static, so every test uses its own areas. */
+    private String areaName;
+
+    @Override
+    protected void setUp() {
+        areaName = getName() + System.nanoTime();
+    }
+
+    public void testChangesSince() {
+        long revision = ChangeLog.getRevision(areaName);
+        long last = ChangeLog.append(areaName, Arrays.asList("{\"a\":1}", "{\"b\":2}"));
+
+        assertEquals(last, ChangeLog.getRevision(areaName));
+        assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), ChangeLog.getChangesSince(areaName, revision));
+        assertEquals(Collections.singletonList("{\"b\":2}"), ChangeLog.getChangesSince(areaName, last - 1));
+        assertTrue(ChangeLog.getChangesSince(areaName, last).isEmpty());
+    }
+
+    public void testRevisionsIncreaseAcrossAreas() {
+        long first = ChangeLog.append(areaName + "1", Collections.singletonList("{}"));
+        long second = ChangeLog.append(areaName + "2", Collections.singletonList("{}"));
+
+        assertTrue(second > first);
+    }
+
+    public void testAreaWithoutLog() {
+        long revision = ChangeLog.getRevision(areaName);
+
+        assertTrue(ChangeLog.getChangesSince(areaName, revision).isEmpty());
+
+        //A log created after the revision was read has all changes after it
+        ChangeLog.append(areaName, Collections.singletonList("{}"));
+        assertEquals(Collections.singletonList("{}"), ChangeLog.getChangesSince(areaName, revision));
+    }
+
+    public void testRevisionFromAnotherRun() {
+        long revision = ChangeLog.getRevision(areaName);
+
+        assertNull(ChangeLog.getChangesSince(areaName, revision + 1000));
+        assertNull(ChangeLog.getChangesSince(areaName, 0));
+    }
+
+    public void testRemovedChanges() {
+        long revision = ChangeLog.getRevision(areaName);
+        long first = ChangeLog.append(areaName, Collections.singletonList("first"));
+        List<String> messages = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            messages.add("{\"i\":" + i + "}");
+        }
+        ChangeLog.append(areaName, messages);
+
+        //Only the first message has been removed from the log
+        assertNull(ChangeLog.getChangesSince(areaName, revision));
+        assertEquals(messages, ChangeLog.getChangesSince(areaName, first));
+    }
+
+    public void testRemove() {
+        long revision = ChangeLog.getRevision(areaName);
+        ChangeLog.append(areaName, Collections.singletonList("{}"));
+        ChangeLog.remove(areaName);
+
+        assertNull(ChangeLog.getChangesSince(areaName, revision));
+        long newRevision = ChangeLog.getRevision(areaName);
+        assertTrue(ChangeLog.getChangesSince(areaName, newRevision).isEmpty());
+    }
+
+    public void testRemoveOnlyResyncsItsArea() {
+        String otherArea = areaName + "other";
+        long revision = ChangeLog.getRevision(otherArea);
+        ChangeLog.append(otherArea, Collections.singletonList("{}"));
+        ChangeLog.append(areaName, Collections.singletonList("{}"));
+        ChangeLog.remove(areaName);
+
+        assertEquals(Collections.singletonList("{}"), ChangeLog.getChangesSince(otherArea, revision));
+    }
+
+    public void testChangesWithRevision() {
+        long revision = ChangeLog.getRevision(areaName);
+        long last = ChangeLog.append(areaName, Arrays.asList("{\"a\":1}", "{\"b\":2}"));
+
+        ChangeLog.Changes changes = ChangeLog.getChanges(areaName, revision);
+        assertEquals(last, changes.getRevision());
+        assertEquals(2, changes.getMessages().size());
+
+        ChangeLog.Changes resync = ChangeLog.getChanges(areaName, 0);
+        assertEquals(last, resync.getRevision());
+        assertNull(resync.getMessages());
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ *  The MIT License
+ *
+ *  Copyright 2013 Sony Mobile Communications AB. All rights reserved.
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+package com.sonymobile.backlogtool;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import junit.framework.TestCase;
+
+public class TestDeltaTracker extends TestCase {
+
+    private DeltaTracker tracker;
+    private Task task;
+
+    @Override
+    protected void setUp() {
+        tracker = new DeltaTracker();
+        Story story = new Story();
+        story.setId(7);
+        task = new Task();
+        task.setId(42);
+        task.setStory(story);
+        task.setTitle("Old title");
+        task.setOwner("owner");
+    }
+
+    public void testOnlyChangedProperties() throws Exception {
+        tracker.snapshot(Task.class, task);
+        task.setTitle("New title");
+
+        JsonNode message = parse(tracker.getDeltaMessage(Task.class, task, JSONController.STORY_TASK_VIEW));
+        assertEquals(DeltaTracker.PUSH_ACTION_DELTA, message.get("type").getTextValue());
+        assertEquals(JSONController.STORY_TASK_VIEW, message.get("views").getTextValue());
+
+        JsonNode data = message.get("data");
+        assertEquals("Task", data.get("type").getTextValue());
+        assertEquals(42, data.get("id").getIntValue());
+        JsonNode changes = data.get("changes");
+        assertEquals(1, changes.size());
+        assertEquals("New title", changes.get("title").getTextValue());
+    }
+
+    public void testChangedToNull() throws Exception {
+        tracker.snapshot(Task.class, task);
+        task.setOwner(null);
+
+        JsonNode changes = parse(tracker.getDeltaMessage(Task.class, task, JSONController.STORY_TASK_VIEW))
+                .get("data").get("changes");
+        assertEquals(1, changes.size());
+        assertTrue(changes.get("owner").isNull());
+    }
+
+    public void testNoChanges() throws Exception {
+        tracker.snapshot(Task.class, task);
+        task.setTitle("Old title");
+
+        assertNull(tracker.getDeltaMessage(Task.class, task, JSONController.STORY_TASK_VIEW));
+    }
+
+    public void testVersionIncreases() throws Exception {
+        tracker.snapshot(Task.class, task);
+        task.setTitle("First");
+        long first = parse(tracker.getDeltaMessage(Task.class, task, JSONController.STORY_TASK_VIEW))
+                .get("data").get("version").getLongValue();
+
+        task.setTitle("Second");
+        long second = parse(tracker.getDeltaMessage(Task.class, task, JSONController.STORY_TASK_VIEW))
+                .get("data").get("version").getLongValue();
+        assertTrue(second > first);
+    }
+
+    public void testNoSnapshot() throws Exception {
+        try {
+            tracker.getDeltaMessage(Task.class, task, JSONController.STORY_TASK_VIEW);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            //Expected
+        }
+    }
+
+    private static JsonNode parse(String json) throws Exception {
+        return new ObjectMapper().readTree(json);
+    }
+
+}